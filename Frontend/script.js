@@ -8,23 +8,76 @@ const deviceLocationInput = document.getElementById('deviceLocation');
 const addDeviceBtn = document.getElementById('addDeviceBtn');
 const devicesTableBody = document.getElementById('devicesTableBody');
 const deviceMessageDiv = document.getElementById('deviceMessage');
+const deviceSearchInput = document.getElementById('deviceSearch');
+const deviceSearchBtn = document.getElementById('deviceSearchBtn');
 
 const loanDeviceSelect = document.getElementById('loanDeviceSelect');
 const loanBorrowedByInput = document.getElementById('loanBorrowedBy');
+const loanDueDateInput = document.getElementById('loanDueDate');
 const addLoanBtn = document.getElementById('addLoanBtn');
 const loansTableBody = document.getElementById('loansTableBody');
 const loanMessageDiv = document.getElementById('loanMessage');
 
+// Local copies kept current by /api/events, so a change doesn't need a full refetch
+const devicesById = new Map();
+const loansById = new Map();
+const overdueLoanIds = new Set();
+// Ids of the current search results in server order, null when no search is active
+let deviceSearchIds = null;
+let changeFeed = null;
+
+// Follows the X-Next-Cursor header until the last page has been read
+async function fetchAllPages(url, errorMessage) {
+    const items = [];
+    let cursor = null;
+    do {
+        const separator = url.includes('?') ? '&' : '?';
+        const res = await fetch(cursor === null ? url : `${url}${separator}cursor=${cursor}`);
+        if (!res.ok) throw new Error(errorMessage);
+        items.push(...await res.json());
+        cursor = res.headers.get('X-Next-Cursor');
+    } while (cursor !== null);
+    return items;
+}
+
 // Device Functions
 async function fetchDevices() {
     deviceMessageDiv.textContent = '';
     deviceMessageDiv.className = '';
     try {
-        const res = await fetch(`${API_BASE}/devices`);
-        if (!res.ok) throw new Error('Failed to fetch devices');
-        const devices = await res.json();
-        renderDevices(devices);
-        populateDeviceSelect(devices);
+        const devices = await fetchAllPages(`${API_BASE}/devices`, 'Failed to fetch devices');
+        devicesById.clear();
+        for (const device of devices) devicesById.set(device.id, device);
+        showDevices();
+    } catch (err) {
+        deviceMessageDiv.textContent = err.message;
+        deviceMessageDiv.className = 'error';
+    }
+}
+
+function showDevices() {
+    const devices = [...devicesById.values()].sort((a, b) => a.id - b.id);
+    renderDevices(deviceSearchIds === null
+        ? devices
+        : deviceSearchIds.filter(id => devicesById.has(id)).map(id => devicesById.get(id)));
+    // The table already holds every device, a separate ?status=AVAILABLE download would fetch them twice
+    populateDeviceSelect(devices.filter(device => device.status === 'AVAILABLE'));
+}
+
+async function searchDevices() {
+    deviceMessageDiv.textContent = '';
+    deviceMessageDiv.className = '';
+    const query = deviceSearchInput.value.trim();
+    if (!query) {
+        deviceSearchIds = null;
+        showDevices();
+        return;
+    }
+    try {
+        const results = await fetchAllPages(`${API_BASE}/devices/search?q=${encodeURIComponent(query)}`, 'Failed to search devices');
+        for (const device of results) devicesById.set(device.id, device);
+        deviceSearchIds = results.map(device => device.id);
+        showDevices();
     } catch (err) {
         deviceMessageDiv.textContent = err.message;
         deviceMessageDiv.className = 'error';
@@ -52,12 +105,10 @@ function renderDevices(devices) {
 function populateDeviceSelect(devices) {
     loanDeviceSelect.innerHTML = '';
     for (const device of devices) {
-        if (device.status === 'AVAILABLE') {
-            const option = document.createElement('option');
-            option.value = device.id;
-            option.textContent = `${device.name} (${device.type})`;
-            loanDeviceSelect.appendChild(option);
-        }
+        const option = document.createElement('option');
+        option.value = device.id;
+        option.textContent = `${device.name} (${device.type})`;
+        loanDeviceSelect.appendChild(option);
     }
 }
 
@@ -86,7 +137,7 @@ async function addDevice() {
         deviceNameInput.value = '';
         deviceTypeInput.value = '';
         deviceLocationInput.value = '';
-        fetchDevices();
+        if (!feedConnected()) fetchDevices();
     } catch (err) {
         deviceMessageDiv.textContent = err.message;
         deviceMessageDiv.className = 'error';
@@ -104,8 +155,10 @@ async function deleteDevice(id) {
         }
         deviceMessageDiv.textContent = 'Device deleted successfully';
         deviceMessageDiv.className = 'success';
-        fetchDevices();
-        fetchLoans();
+        if (!feedConnected()) {
+            fetchDevices();
+            fetchLoans();
+        }
     } catch (err) {
         deviceMessageDiv.textContent = err.message;
         deviceMessageDiv.className = 'error';
@@ -117,25 +170,34 @@ async function fetchLoans() {
     loanMessageDiv.textContent = '';
     loanMessageDiv.className = '';
     try {
-        const res = await fetch(`${API_BASE}/loans`);
-        if (!res.ok) throw new Error('Failed to fetch loans');
-        const loans = await res.json();
-        renderLoans(loans);
+        const loans = await fetchAllPages(`${API_BASE}/loans?include=device`, 'Failed to fetch loans');
+        loansById.clear();
+        for (const loan of loans) loansById.set(loan.id, loan);
+        const overdueRes = await fetch(`${API_BASE}/loans/overdue`);
+        if (!overdueRes.ok) throw new Error('Failed to fetch overdue loans');
+        overdueLoanIds.clear();
+        for (const loan of await overdueRes.json()) overdueLoanIds.add(loan.id);
+        showLoans();
     } catch (err) {
         loanMessageDiv.textContent = err.message;
         loanMessageDiv.className = 'error';
     }
 }
 
+function showLoans() {
+    renderLoans([...loansById.values()].sort((a, b) => a.id - b.id));
+}
+
 function renderLoans(loans) {
     loansTableBody.innerHTML = '';
     for (const loan of loans) {
         const tr = document.createElement('tr');
         tr.innerHTML = `
             <td>${loan.id}</td>
-            <td>${loan.deviceId}</td>
+            <td>${deviceLabel(loan)}</td>
             <td>${loan.borrowedBy}</td>
             <td>${new Date(loan.startDate).toLocaleString()}</td>
+            <td>${loan.dueDate ? new Date(loan.dueDate).toLocaleString() : ''}${overdueLoanIds.has(loan.id) ? ' (overdue)' : ''}</td>
             <td>${loan.returned ? new Date(loan.endDate).toLocaleString() : 'Not returned'}</td>
             <td>
                 ${loan.returned ? '' : `<button onclick="markReturned(${loan.id})">Mark Returned</button>`}
@@ -145,11 +207,18 @@ function renderLoans(loans) {
     }
 }
 
+// Listed loans carry the device name, loans from the change feed fall back to the loaded devices
+function deviceLabel(loan) {
+    const name = loan.deviceName ?? devicesById.get(loan.deviceId)?.name;
+    return name ? `${name} (#${loan.deviceId})` : `#${loan.deviceId}`;
+}
+
 async function addLoan() {
     loanMessageDiv.textContent = '';
     loanMessageDiv.className = '';
     const deviceId = parseInt(loanDeviceSelect.value);
     const borrowedBy = loanBorrowedByInput.value.trim();
+    const dueDate = loanDueDateInput.value ? new Date(loanDueDateInput.value).getTime() : null;
 
     if (!deviceId || !borrowedBy) {
         loanMessageDiv.textContent = 'Please select a device and enter borrower name';
@@ -161,7 +230,7 @@ async function addLoan() {
         const res = await fetch(`${API_BASE}/loans`, {
             method: 'POST',
             headers: { 'Content-Type': 'application/json' },
-            body: JSON.stringify({ deviceId, borrowedBy }),
+            body: JSON.stringify({ deviceId, borrowedBy, dueDate }),
         });
         if (!res.ok) {
             const errText = await res.text();
@@ -170,8 +239,11 @@ async function addLoan() {
         loanMessageDiv.textContent = 'Loan added successfully';
         loanMessageDiv.className = 'success';
         loanBorrowedByInput.value = '';
-        fetchLoans();
-        fetchDevices();
+        loanDueDateInput.value = '';
+        if (!feedConnected()) {
+            fetchLoans();
+            fetchDevices();
+        }
     } catch (err) {
         loanMessageDiv.textContent = err.message;
         loanMessageDiv.className = 'error';
@@ -189,18 +261,80 @@ async function markReturned(id) {
         }
         loanMessageDiv.textContent = `Loan ${id} marked as returned`;
         loanMessageDiv.className = 'success';
-        fetchLoans();
-        fetchDevices();
+        if (!feedConnected()) {
+            fetchLoans();
+            fetchDevices();
+        }
     } catch (err) {
         loanMessageDiv.textContent = err.message;
         loanMessageDiv.className = 'error';
     }
 }
 
+// Change feed
+function feedConnected() {
+    return changeFeed !== null && changeFeed.readyState === EventSource.OPEN;
+}
+
+// EventSource reconnects by itself and sends Last-Event-ID, the server replays what was missed
+function connectChangeFeed() {
+    if (typeof EventSource === 'undefined') return;
+    changeFeed = new EventSource(`${API_BASE}/events`);
+    changeFeed.addEventListener('device', event => applyDeviceChange(JSON.parse(event.data)));
+    changeFeed.addEventListener('loan', event => applyLoanChange(JSON.parse(event.data)));
+    // Old returned loans moved to the archive, the loan list only shows the hot table
+    changeFeed.addEventListener('archived', event => {
+        for (const id of JSON.parse(event.data).loanIds) loansById.delete(id);
+        showLoans();
+    });
+    // Sent when the server could not keep up with this client or no longer has its last event
+    changeFeed.addEventListener('resync', () => {
+        fetchDevices();
+        fetchLoans();
+    });
+}
+
+function applyDeviceChange(change) {
+    if (change.type === 'DELETED') {
+        devicesById.delete(change.deviceId);
+    } else {
+        devicesById.set(change.deviceId, change.device);
+    }
+    showDevices();
+}
+
+async function applyLoanChange(change) {
+    if (change.type === 'OVERDUE') {
+        overdueLoanIds.add(change.loan.id);
+        showLoans();
+        return;
+    }
+    if (change.type === 'RETURNED') overdueLoanIds.delete(change.loan.id);
+    const deviceName = loansById.get(change.loan.id)?.deviceName ?? devicesById.get(change.loan.deviceId)?.name;
+    loansById.set(change.loan.id, { ...change.loan, deviceName });
+    showLoans();
+    // The loan moved its device's status along with it
+    try {
+        const res = await fetch(`${API_BASE}/devices/${change.loan.deviceId}`);
+        if (res.ok) {
+            const device = await res.json();
+            devicesById.set(device.id, device);
+            showDevices();
+        }
+    } catch (err) {
+        // The next resync or reload brings the device up to date
+    }
+}
+
 // Event Listeners
 addDeviceBtn.addEventListener('click', addDevice);
+deviceSearchBtn.addEventListener('click', searchDevices);
+deviceSearchInput.addEventListener('keydown', event => {
+    if (event.key === 'Enter') searchDevices();
+});
 addLoanBtn.addEventListener('click', addLoan);
 
 // Initial load
+connectChangeFeed();
 fetchDevices();
 fetchLoans();
@@ -0,0 +1,64 @@
+package edu.unac.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+@Configuration
+@ConditionalOnProperty(name = "inventory.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionConfig {
+    private static final int STRIPES = 64;
+
+    private final Environment environment;
+    private final MeterRegistry registry;
+    // One set of permits for all write endpoints, they share the connection pool
+    private final Semaphore writePermits;
+    private final long acquireTimeoutMillis;
+    private final String clientHeader;
+    private final int maxClients;
+
+    public AdmissionConfig(Environment environment, MeterRegistry registry,
+                           @Value("${inventory.admission.max-concurrent-writes:8}") int maxConcurrentWrites,
+                           @Value("${inventory.admission.acquire-timeout:100ms}") Duration acquireTimeout,
+                           @Value("${inventory.admission.client-header:}") String clientHeader,
+                           @Value("${inventory.admission.max-clients:100000}") int maxClients) {
+        this.environment = environment;
+        this.registry = registry;
+        this.writePermits = new Semaphore(maxConcurrentWrites, true);
+        this.acquireTimeoutMillis = acquireTimeout.toMillis();
+        this.clientHeader = clientHeader;
+        this.maxClients = maxClients;
+    }
+
+    // After the idempotency filter, a replay takes neither a token nor a permit
+    @Bean
+    public FilterRegistrationBean<AdmissionFilter> loanAdmissionFilter() {
+        return admission("loans", "/api/loans", "/api/loans/*");
+    }
+
+    @Bean
+    public FilterRegistrationBean<AdmissionFilter> deviceAdmissionFilter() {
+        return admission("devices", "/api/devices", "/api/devices/*");
+    }
+
+    // Limits are read per endpoint: inventory.admission.<endpoint>.permits-per-second and .burst
+    private FilterRegistrationBean<AdmissionFilter> admission(String endpoint, String... urlPatterns) {
+        String prefix = "inventory.admission." + endpoint + ".";
+        ClientBuckets buckets = new ClientBuckets(
+                environment.getProperty(prefix + "permits-per-second", Double.class, 50d),
+                environment.getProperty(prefix + "burst", Integer.class, 100),
+                STRIPES, Math.max(1, maxClients / STRIPES));
+        FilterRegistrationBean<AdmissionFilter> registration = new FilterRegistrationBean<>(
+                new AdmissionFilter(endpoint, buckets, writePermits, acquireTimeoutMillis, clientHeader, registry));
+        registration.setName(endpoint + "AdmissionFilter");
+        registration.addUrlPatterns(urlPatterns);
+        return registration;
+    }
+}
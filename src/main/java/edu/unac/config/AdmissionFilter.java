@@ -0,0 +1,137 @@
+package edu.unac.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control for the writes of one endpoint. A write first needs a token from its
+ * client's bucket, so one flooding script only uses up its own share. Then it needs one of the
+ * permits shared by all write endpoints, which keeps the writes holding a database connection
+ * below the pool size. Either refusal is a 429 with Retry-After, a write waits up to the
+ * acquire timeout for a permit before it is shed. Reads pass straight through.
+ *
+ * <p>A write that goes on to wait without a connection, like one queued for group commit, can
+ * hand its permit back early with {@link #releasePermit}.
+ *
+ * <p>Outcomes are counted in {@code inventory.admission.requests}, tagged with the endpoint
+ * and admitted, rate_limited or shed.
+ */
+public class AdmissionFilter extends OncePerRequestFilter {
+    private static final long SHED_RETRY_AFTER_SECONDS = 1;
+    private static final String PERMIT = AdmissionFilter.class.getName() + ".permit";
+
+    private final ClientBuckets buckets;
+    private final Semaphore writePermits;
+    private final long acquireTimeoutMillis;
+    private final String clientHeader;
+    private final Counter admitted;
+    private final Counter rateLimited;
+    private final Counter shed;
+
+    /** Clients are told apart by clientHeader when set and present, otherwise by remote address. */
+    public AdmissionFilter(String endpoint, ClientBuckets buckets, Semaphore writePermits, long acquireTimeoutMillis,
+                           String clientHeader, MeterRegistry registry) {
+        this.buckets = buckets;
+        this.writePermits = writePermits;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.clientHeader = clientHeader;
+        this.admitted = counter(registry, endpoint, "admitted");
+        this.rateLimited = counter(registry, endpoint, "rate_limited");
+        this.shed = counter(registry, endpoint, "shed");
+    }
+
+    /** Gives back the write permit the request holds. Does nothing once released, or without one. */
+    public static void releasePermit(ServletRequest request) {
+        if (request.getAttribute(PERMIT) instanceof Permit permit) {
+            permit.release();
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod())
+                || HttpMethod.OPTIONS.matches(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long waitNanos = buckets.tryAcquire(client(request, clientHeader));
+        if (waitNanos > 0) {
+            rateLimited.increment();
+            reject(response, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999)));
+            return;
+        }
+
+        boolean acquired;
+        try {
+            acquired = writePermits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            shed.increment();
+            reject(response, SHED_RETRY_AFTER_SECONDS);
+            return;
+        }
+
+        admitted.increment();
+        Permit permit = new Permit(writePermits);
+        request.setAttribute(PERMIT, permit);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            request.removeAttribute(PERMIT);
+            permit.release();
+        }
+    }
+
+    // Also scopes idempotency keys, see IdempotencyFilter
+    static String client(HttpServletRequest request, String clientHeader) {
+        String client = clientHeader.isEmpty() ? null : request.getHeader(clientHeader);
+        return client == null || client.isBlank() ? request.getRemoteAddr() : client;
+    }
+
+    private static void reject(HttpServletResponse response, long retryAfterSeconds) {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+    }
+
+    private static Counter counter(MeterRegistry registry, String endpoint, String outcome) {
+        return Counter.builder("inventory.admission.requests")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    // Released at most once, early by the handler or when the request ends
+    private static final class Permit {
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore permits) {
+            this.permits = permits;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+}
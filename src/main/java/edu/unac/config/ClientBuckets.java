@@ -0,0 +1,90 @@
+package edu.unac.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * One token bucket per client, refilled at a fixed rate up to a burst. The table is split in
+ * lock stripes by client hash, so clients on different stripes never wait on each other.
+ *
+ * <p>Each stripe keeps a bounded number of clients and forgets the least recently seen one
+ * first. A forgotten client starts over with a full bucket, which is what it would have
+ * refilled to anyway unless it was sending the whole time.
+ */
+public class ClientBuckets {
+    private final double tokensPerNano;
+    private final double burst;
+    private final Stripe[] stripes;
+    private final LongSupplier clock;
+
+    public ClientBuckets(double permitsPerSecond, int burst, int stripes, int maxClientsPerStripe) {
+        this(permitsPerSecond, burst, stripes, maxClientsPerStripe, System::nanoTime);
+    }
+
+    ClientBuckets(double permitsPerSecond, int burst, int stripes, int maxClientsPerStripe, LongSupplier clock) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.tokensPerNano = permitsPerSecond / 1_000_000_000d;
+        this.burst = burst;
+        // Power of two, the stripe is picked with a mask
+        this.stripes = new Stripe[stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(maxClientsPerStripe);
+        }
+        this.clock = clock;
+    }
+
+    /** Takes a token for the client. Returns 0 when it got one, otherwise the nanoseconds until it would. */
+    public long tryAcquire(String client) {
+        int hash = client.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+        long now = clock.getAsLong();
+        synchronized (stripe) {
+            Bucket bucket = stripe.computeIfAbsent(client, c -> new Bucket(burst, now));
+            bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilledAt) * tokensPerNano);
+            bucket.refilledAt = now;
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - bucket.tokens) / tokensPerNano);
+        }
+    }
+
+    int clients() {
+        int clients = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                clients += stripe.size();
+            }
+        }
+        return clients;
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long refilledAt;
+
+        private Bucket(double tokens, long refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+    }
+
+    // Access order, the eldest entry is the client seen least recently
+    private static final class Stripe extends LinkedHashMap<String, Bucket> {
+        private final int maxClients;
+
+        private Stripe(int maxClients) {
+            super(16, 0.75f, true);
+            this.maxClients = maxClients;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > maxClients;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package edu.unac.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.nio.file.Path;
+
+/**
+ * Wiring for the durable profile, see application-durable.properties.
+ *
+ * <p>A restart opens the existing database file, so nothing is re-imported. When the file is
+ * missing and {@code inventory.storage.restore-from} names a snapshot, the snapshot is put in
+ * place before the pool opens the first connection.
+ */
+@Configuration
+@Profile("durable")
+public class DurableStorageConfig {
+
+    @Bean
+    public StorageSnapshots storageSnapshots(@Value("${inventory.storage.directory:./data}") Path directory,
+                                             @Value("${inventory.storage.snapshot-directory}") Path snapshotDirectory,
+                                             @Value("${inventory.storage.snapshot-on-shutdown:false}") boolean snapshotOnShutdown) {
+        return new StorageSnapshots(directory, snapshotDirectory, snapshotOnShutdown);
+    }
+
+    // Depending on the snapshots bean also makes it outlive the pool on shutdown
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties,
+                                       StorageSnapshots snapshots,
+                                       @Value("${inventory.storage.restore-from:}") String restoreFrom) {
+        if (!restoreFrom.isBlank()) {
+            snapshots.restoreIfMissing(Path.of(restoreFrom));
+        }
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+}
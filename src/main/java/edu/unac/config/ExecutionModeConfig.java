@@ -0,0 +1,23 @@
+package edu.unac.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ExecutionModeConfig {
+
+    // Turned on by the virtual profile, see application-virtual.properties
+    @Bean
+    @ConditionalOnProperty(name = "inventory.bulkhead.enabled", havingValue = "true")
+    public FilterRegistrationBean<BulkheadFilter> bulkheadFilter(
+            @Value("${inventory.bulkhead.max-concurrent-requests}") int maxConcurrentRequests,
+            @Value("${inventory.bulkhead.acquire-timeout-ms}") long acquireTimeoutMillis) {
+        FilterRegistrationBean<BulkheadFilter> registration =
+                new FilterRegistrationBean<>(new BulkheadFilter(maxConcurrentRequests, acquireTimeoutMillis));
+        registration.addUrlPatterns("/api/*");
+        return registration;
+    }
+}
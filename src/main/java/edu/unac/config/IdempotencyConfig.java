@@ -0,0 +1,45 @@
+package edu.unac.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "inventory.idempotency.enabled", havingValue = "true", matchIfMissing = true)
+public class IdempotencyConfig {
+
+    // Hits are replays, exposed as the cache.gets metric with cache=idempotency
+    @Bean
+    public Cache<String, IdempotencyFilter.Entry> idempotencyResults(
+            @Value("${inventory.idempotency.max-entries:100000}") long maxEntries,
+            @Value("${inventory.idempotency.ttl:1h}") Duration ttl,
+            MeterRegistry registry) {
+        Cache<String, IdempotencyFilter.Entry> results = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        return CaffeineCacheMetrics.monitor(registry, results, "idempotency");
+    }
+
+    // Ahead of the bulkhead, a replay costs no permit
+    @Bean
+    public FilterRegistrationBean<IdempotencyFilter> idempotencyFilter(
+            Cache<String, IdempotencyFilter.Entry> idempotencyResults,
+            @Value("${inventory.admission.client-header:}") String clientHeader) {
+        FilterRegistrationBean<IdempotencyFilter> registration =
+                new FilterRegistrationBean<>(new IdempotencyFilter(idempotencyResults, clientHeader));
+        registration.addUrlPatterns("/api/loans", "/api/devices");
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE - 1);
+        return registration;
+    }
+}
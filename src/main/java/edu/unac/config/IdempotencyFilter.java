@@ -0,0 +1,211 @@
+package edu.unac.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Replays the stored response of a POST that carries an Idempotency-Key seen before, so a
+ * client retrying after a timeout gets the original answer instead of running the write again.
+ *
+ * <p>The first request with a key claims it and runs normally. A retry while that one is still
+ * running gets 409 with Retry-After, the same key with a different body gets 422. Server
+ * errors and 429 are not stored, the key is released so the request can be tried again. How
+ * many keys are kept and for how long is up to the cache passed in.
+ *
+ * <p>Keys belong to a client, told apart the same way as by {@link AdmissionFilter}. Another
+ * client sending the same key runs its own request and never sees this one's response.
+ */
+public class IdempotencyFilter extends OncePerRequestFilter {
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, Entry> results;
+    private final String clientHeader;
+
+    public IdempotencyFilter(Cache<String, Entry> results, String clientHeader) {
+        this.results = results;
+        this.clientHeader = clientHeader;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.POST.matches(request.getMethod()) || request.getHeader(IDEMPOTENCY_KEY_HEADER) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String key = request.getHeader(IDEMPOTENCY_KEY_HEADER);
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "Invalid " + IDEMPOTENCY_KEY_HEADER);
+            return;
+        }
+
+        // Keys are per client and endpoint. Header values cannot hold a line break, so the parts stay apart
+        String scopedKey = AdmissionFilter.client(request, clientHeader) + "\n" + request.getRequestURI() + "\n" + key;
+        byte[] body = request.getInputStream().readAllBytes();
+        Entry claim = new Entry(fingerprint(body));
+        Entry existing = results.asMap().putIfAbsent(scopedKey, claim);
+        if (existing != null) {
+            replay(existing, claim, response);
+            return;
+        }
+
+        ContentCachingResponseWrapper recorder = new ContentCachingResponseWrapper(response);
+        try {
+            chain.doFilter(new BufferedBodyRequest(request, body), recorder);
+        } catch (IOException | ServletException | RuntimeException e) {
+            results.asMap().remove(scopedKey, claim);
+            throw e;
+        }
+
+        // Neither a server error nor a 429 from admission control ran the write
+        if (recorder.getStatus() >= 500 || recorder.getStatus() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+            results.asMap().remove(scopedKey, claim);
+        } else {
+            claim.response.complete(new StoredResponse(recorder.getStatus(), headers(recorder),
+                    recorder.getContentAsByteArray()));
+        }
+        recorder.copyBodyToResponse();
+    }
+
+    private static void replay(Entry existing, Entry claim, HttpServletResponse response) throws IOException {
+        if (!Arrays.equals(existing.fingerprint, claim.fingerprint)) {
+            response.sendError(HttpStatus.UNPROCESSABLE_ENTITY.value(),
+                    IDEMPOTENCY_KEY_HEADER + " was already used with a different body");
+            return;
+        }
+
+        StoredResponse stored = existing.response.getNow(null);
+        if (stored == null) {
+            // The first request is still running, waiting here would hold a thread per retry
+            response.setStatus(HttpStatus.CONFLICT.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return;
+        }
+
+        response.setStatus(stored.status);
+        stored.headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        response.setHeader(REPLAYED_HEADER, "true");
+        response.setContentLength(stored.body.length);
+        response.getOutputStream().write(stored.body);
+    }
+
+    // Content type, CORS and Vary as the controller set them, the length is set again on replay
+    private static Map<String, List<String>> headers(HttpServletResponse response) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : response.getHeaderNames()) {
+            if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && !HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)) {
+                headers.put(name, List.copyOf(response.getHeaders(name)));
+            }
+        }
+        if (response.getContentType() != null) {
+            headers.put(HttpHeaders.CONTENT_TYPE, List.of(response.getContentType()));
+        }
+        return headers;
+    }
+
+    private static byte[] fingerprint(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A claimed key: the body it was first sent with and, once written, the response. */
+    public static final class Entry {
+        private final byte[] fingerprint;
+        private final CompletableFuture<StoredResponse> response = new CompletableFuture<>();
+
+        Entry(byte[] fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private record StoredResponse(int status, Map<String, List<String>> headers, byte[] body) {
+    }
+
+    // The body has been read for the fingerprint, the controller reads this copy
+    private static final class BufferedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        BufferedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                // Everything is in memory already, so the listener is told at once
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    try {
+                        if (!isFinished()) {
+                            listener.onDataAvailable();
+                        }
+                        if (isFinished()) {
+                            listener.onAllDataRead();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        listener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            Charset charset = getCharacterEncoding() == null ? StandardCharsets.UTF_8 : Charset.forName(getCharacterEncoding());
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+    }
+}
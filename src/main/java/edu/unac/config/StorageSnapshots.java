@@ -0,0 +1,122 @@
+package edu.unac.config;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Copies of the database file, taken once the pool has closed the database.
+ *
+ * <p>H2 can back up an open store, but background compaction may move chunks while the copy
+ * runs, and a large store copied that way does not always reopen. A closed file is consistent,
+ * so the snapshot is written on shutdown, after the data source is gone. Both directions copy
+ * to a temporary name and then move it into place, so a crash never leaves a partial file
+ * where the other side looks for it.
+ */
+public class StorageSnapshots {
+    private static final Logger log = LoggerFactory.getLogger(StorageSnapshots.class);
+
+    static final String DATABASE_FILE = "inventoryDb.mv.db";
+    private static final String LATEST = "latest.mv.db";
+    private static final Duration LOCK_TIMEOUT = Duration.ofMinutes(5);
+
+    private final Path directory;
+    private final Path snapshotDirectory;
+    private final boolean snapshotOnShutdown;
+
+    public StorageSnapshots(Path directory, Path snapshotDirectory, boolean snapshotOnShutdown) {
+        this.directory = directory;
+        this.snapshotDirectory = snapshotDirectory;
+        this.snapshotOnShutdown = snapshotOnShutdown;
+    }
+
+    public Path latest() {
+        return snapshotDirectory.resolve(LATEST);
+    }
+
+    /** Puts the snapshot in place when there is no database file yet, an existing one is kept. */
+    public boolean restoreIfMissing(Path snapshot) {
+        Path database = directory.resolve(DATABASE_FILE);
+        if (Files.exists(database)) {
+            return false;
+        }
+        if (!Files.isRegularFile(snapshot)) {
+            throw new IllegalStateException("Snapshot not found: " + snapshot);
+        }
+        long start = System.nanoTime();
+        copy(snapshot, database);
+        log.info("Restored {} from {} in {} ms", database, snapshot, (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+
+    /**
+     * Copies the database file once H2 has let go of it. The pool may return before H2 has
+     * finished closing a large store, so this waits for the file lock and holds it while copying.
+     */
+    public Path write() {
+        long start = System.nanoTime();
+        Path database = directory.resolve(DATABASE_FILE);
+        try (FileChannel channel = FileChannel.open(database, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock ignored = awaitLock(channel)) {
+            copy(database, latest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Wrote snapshot {} in {} ms", latest(), (System.nanoTime() - start) / 1_000_000);
+        return latest();
+    }
+
+    // The data source depends on this bean, so it has already been closed here
+    @PreDestroy
+    void writeOnShutdown() {
+        if (snapshotOnShutdown && Files.exists(directory.resolve(DATABASE_FILE))) {
+            write();
+        }
+    }
+
+    // H2 holds the lock while the database is open, in this JVM that shows up as an overlap
+    private static FileLock awaitLock(FileChannel channel) throws IOException {
+        long deadline = System.nanoTime() + LOCK_TIMEOUT.toNanos();
+        while (true) {
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return lock;
+                }
+            } catch (OverlappingFileLockException e) {
+                // Still open here, keep waiting
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Database still open after " + LOCK_TIMEOUT);
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the database to close", e);
+            }
+        }
+    }
+
+    private static void copy(Path source, Path target) {
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        try {
+            Files.createDirectories(target.getParent());
+            Files.copy(source, partial, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
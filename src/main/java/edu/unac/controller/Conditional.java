@@ -0,0 +1,25 @@
+package edu.unac.controller;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+// Successful responses of endpoints answering If-None-Match, tags come from CollectionVersions
+final class Conditional {
+    private Conditional() {
+    }
+
+    // Weak: the same version is served as JSON or CBOR, gzipped or not. Tomcat also refuses
+    // to compress a response carrying a strong tag.
+    static String weak(String tag) {
+        return "W/\"" + tag + "\"";
+    }
+
+    // no-cache lets browsers keep the body but revalidate it with If-None-Match on every use
+    static ResponseEntity.BodyBuilder ok(String etag) {
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT);
+    }
+}
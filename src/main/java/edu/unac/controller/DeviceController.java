@@ -1,33 +1,103 @@
 package edu.unac.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.unac.domain.Device;
+import edu.unac.domain.DeviceImportResult;
 import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.DeviceView;
+import edu.unac.domain.InventorySummary;
+import edu.unac.service.CollectionVersions;
+import edu.unac.service.DeviceReadModel;
 import edu.unac.service.DeviceService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/devices")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = {Pagination.NEXT_CURSOR_HEADER, HttpHeaders.ETAG})
 public class DeviceController {
     private final DeviceService deviceService;
+    private final ObjectMapper objectMapper;
+    private final CollectionVersions versions;
+    private final DeviceReadModel readModel;
 
-    public DeviceController(DeviceService deviceService) {
+    @Value("${inventory.pagination.default-size:100}")
+    private int defaultPageSize;
+    @Value("${inventory.pagination.max-size:1000}")
+    private int maxPageSize;
+    @Value("${inventory.import.batch-size:500}")
+    private int importBatchSize;
+
+    public DeviceController(DeviceService deviceService, ObjectMapper objectMapper, CollectionVersions versions,
+                            DeviceReadModel readModel) {
         this.deviceService = deviceService;
+        this.objectMapper = objectMapper;
+        this.versions = versions;
+        this.readModel = readModel;
     }
 
+    // Served from DeviceReadModel, the selector for new loans asks for status=AVAILABLE
     @GetMapping
-    public ResponseEntity<List<Device>> getAllDevices() {
-        return ResponseEntity.ok(deviceService.getAllDevices());
+    public ResponseEntity<List<DeviceView>> getAllDevices(@RequestParam(value = "cursor", required = false) Long cursor,
+                                                      @RequestParam(value = "size", required = false) Integer size,
+                                                      @RequestParam(value = "status", required = false) DeviceStatus status,
+                                                      @RequestParam(value = "type", required = false) String type,
+                                                      @RequestParam(value = "location", required = false) String location,
+                                                      WebRequest request) {
+        // Tag first, then data: a write in between can only make the tag older than the body
+        String etag = Conditional.weak(versions.devicesTag());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        int pageSize = Pagination.pageSize(size, defaultPageSize, maxPageSize);
+        return Pagination.toResponse(readModel.getDevicePage(cursor, pageSize, status, type, location), etag);
+    }
+
+    // Matches every word of q against name, type and location, see DeviceSearchIndex
+    @GetMapping("/search")
+    public ResponseEntity<List<DeviceView>> searchDevices(@RequestParam("q") String query,
+                                                      @RequestParam(value = "status", required = false) DeviceStatus status,
+                                                      @RequestParam(value = "cursor", required = false) Long cursor,
+                                                      @RequestParam(value = "size", required = false) Integer size,
+                                                      WebRequest request) {
+        String etag = Conditional.weak(versions.devicesTag());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        int pageSize = Pagination.pageSize(size, defaultPageSize, maxPageSize);
+        try {
+            return Pagination.toResponse(deviceService.searchDevices(query, status, cursor, pageSize), etag);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/summary")
+    public ResponseEntity<InventorySummary> getSummary() {
+        return ResponseEntity.ok(deviceService.getSummary());
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Device> getDeviceById(@PathVariable("id") Long id) {
-        return deviceService.getDeviceById(id)
-                .map(ResponseEntity::ok)
+    public ResponseEntity<DeviceView> getDeviceById(@PathVariable("id") Long id, WebRequest request) {
+        String etag = Conditional.weak(versions.deviceTag(id));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return readModel.getDevice(id)
+                .map(device -> Conditional.ok(etag).body(device))
                 .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
     }
 
@@ -41,6 +111,13 @@ public class DeviceController {
         }
     }
 
+    // Accepts a JSON array or newline-delimited JSON, both are read row by row instead of buffered
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<DeviceImportResult> importDevices(InputStream body) throws IOException {
+        MappingIterator<Device> rows = objectMapper.readerFor(Device.class).readValues(body);
+        return ResponseEntity.ok(deviceService.importDevices(new MalformedRowIterator(rows), importBatchSize));
+    }
+
     @PutMapping("/{id}/status")
     public ResponseEntity<Device> updateDeviceStatus(@PathVariable("id") Long id, @RequestParam("status") DeviceStatus status) {
         try {
@@ -48,6 +125,9 @@ public class DeviceController {
             return ResponseEntity.ok(updated);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (OptimisticLockingFailureException e) {
+            // Still conflicting after the configured retries
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         }
     }
 
@@ -61,4 +141,36 @@ public class DeviceController {
             return ResponseEntity.status(HttpStatus.CONFLICT).build();
         }
     }
+
+    // Reports unreadable rows as IllegalArgumentException so the service can record them per row
+    private static class MalformedRowIterator implements Iterator<Device> {
+        private final MappingIterator<Device> rows;
+
+        MalformedRowIterator(MappingIterator<Device> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return rows.hasNextValue();
+            } catch (IOException e) {
+                throw malformed(e);
+            }
+        }
+
+        @Override
+        public Device next() {
+            try {
+                return rows.nextValue();
+            } catch (IOException e) {
+                throw malformed(e);
+            }
+        }
+
+        private static IllegalArgumentException malformed(IOException e) {
+            String reason = e instanceof JsonProcessingException jsonError ? jsonError.getOriginalMessage() : e.getMessage();
+            return new IllegalArgumentException("Malformed row: " + reason);
+        }
+    }
 }
@@ -1,28 +1,127 @@
 package edu.unac.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import edu.unac.config.AdmissionFilter;
+import edu.unac.config.MessageFormatConfig;
 import edu.unac.domain.Loan;
+import edu.unac.domain.LoanReturnRequest;
+import edu.unac.domain.LoanReturnResult;
+import edu.unac.domain.LoanWithDevice;
+import edu.unac.service.CollectionVersions;
+import edu.unac.service.LoanCommitPipeline;
 import edu.unac.service.LoanService;
+import edu.unac.service.OverdueTracker;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/loans")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = {Pagination.NEXT_CURSOR_HEADER, HttpHeaders.ETAG})
 public class LoanController {
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
     private final LoanService loanService;
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper cborMapper;
+    private final CollectionVersions versions;
+    private final OverdueTracker overdueTracker;
+    private final LoanCommitPipeline commitPipeline;
+
+    @Value("${inventory.pagination.default-size:100}")
+    private int defaultPageSize;
+    @Value("${inventory.pagination.max-size:1000}")
+    private int maxPageSize;
 
-    public LoanController(LoanService loanService) {
+    public LoanController(LoanService loanService, ObjectMapper objectMapper,
+                          MappingJackson2CborHttpMessageConverter cborConverter, CollectionVersions versions,
+                          OverdueTracker overdueTracker, LoanCommitPipeline commitPipeline) {
         this.loanService = loanService;
+        this.objectMapper = objectMapper;
+        this.cborMapper = cborConverter.getObjectMapper();
+        this.versions = versions;
+        this.overdueTracker = overdueTracker;
+        this.commitPipeline = commitPipeline;
     }
 
     @GetMapping
-    public ResponseEntity<List<Loan>> getAllLoans() {
-        return ResponseEntity.ok(loanService.getAllLoans());
+    public ResponseEntity<List<Loan>> getAllLoans(@RequestParam(value = "cursor", required = false) Long cursor,
+                                                  @RequestParam(value = "size", required = false) Integer size,
+                                                  @RequestParam(value = "returned", required = false) Boolean returned,
+                                                  @RequestParam(value = "deviceId", required = false) Long deviceId,
+                                                  WebRequest request) {
+        String etag = Conditional.weak(versions.loansTag());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        int pageSize = Pagination.pageSize(size, defaultPageSize, maxPageSize);
+        return Pagination.toResponse(loanService.getLoanPage(cursor, pageSize, returned, deviceId), etag);
+    }
+
+    // Device columns are joined in the same statement. Name, type and location never change, and deleting a
+    // device (possible once its loans are returned) moves the loan tags too, so they still describe the page
+    @GetMapping(params = "include=device")
+    public ResponseEntity<List<LoanWithDevice>> getAllLoansWithDevice(@RequestParam(value = "cursor", required = false) Long cursor,
+                                                                      @RequestParam(value = "size", required = false) Integer size,
+                                                                      @RequestParam(value = "returned", required = false) Boolean returned,
+                                                                      @RequestParam(value = "deviceId", required = false) Long deviceId,
+                                                                      WebRequest request) {
+        String etag = Conditional.weak(versions.loansTag());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        int pageSize = Pagination.pageSize(size, defaultPageSize, maxPageSize);
+        return Pagination.toResponse(loanService.getLoanPageWithDevice(cursor, pageSize, returned, deviceId), etag);
+    }
+
+    // Rows are written as they come off the database cursor, nothing is collected in memory
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportLoans(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                                             @RequestParam(value = "from", defaultValue = "0") long from,
+                                                             @RequestParam(value = "to", defaultValue = "9223372036854775807") long to,
+                                                             @RequestParam(value = "deviceId", required = false) Long deviceId,
+                                                             @RequestParam(value = "includeArchived", defaultValue = "false") boolean includeArchived) {
+        if ("ndjson".equalsIgnoreCase(format)) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=loans.ndjson")
+                    .body(out -> writeSequence(objectMapper, out, from, to, deviceId, includeArchived));
+        }
+        if ("cbor".equalsIgnoreCase(format)) {
+            return ResponseEntity.ok()
+                    .contentType(MessageFormatConfig.APPLICATION_CBOR_SEQ)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=loans.cbor")
+                    .body(out -> writeSequence(cborMapper, out, from, to, deviceId, includeArchived));
+        }
+        if ("csv".equalsIgnoreCase(format)) {
+            return ResponseEntity.ok()
+                    .contentType(TEXT_CSV)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=loans.csv")
+                    .body(out -> writeCsv(out, from, to, deviceId, includeArchived));
+        }
+        return ResponseEntity.badRequest().build();
+    }
+
+    // Answered from memory, no query runs
+    @GetMapping("/overdue")
+    public ResponseEntity<List<Loan>> getOverdueLoans() {
+        return ResponseEntity.ok(overdueTracker.getOverdueLoans());
     }
 
     @GetMapping("/{id}")
@@ -32,10 +131,12 @@ public class LoanController {
                 .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
     }
 
+    // Both writes go through the group commit pipeline, which hands them to LoanService when it is off.
+    // A queued write gives its admission permit back, only the committer holds a connection for it.
     @PostMapping
-    public ResponseEntity<Loan> registerLoan(@RequestBody Loan loan) {
+    public ResponseEntity<Loan> registerLoan(@RequestBody Loan loan, HttpServletRequest request) {
         try {
-            Loan created = loanService.registerLoan(loan);
+            Loan created = commitPipeline.registerLoan(loan, () -> AdmissionFilter.releasePermit(request));
             return ResponseEntity.status(HttpStatus.CREATED).body(created);
         } catch (IllegalArgumentException | IllegalStateException e) {
             return ResponseEntity.badRequest().body(null);
@@ -43,9 +144,9 @@ public class LoanController {
     }
 
     @PutMapping("/{id}/return")
-    public ResponseEntity<Loan> markAsReturned(@PathVariable("id") Long id) {
+    public ResponseEntity<Loan> markAsReturned(@PathVariable("id") Long id, HttpServletRequest request) {
         try {
-            Loan updated = loanService.markAsReturned(id);
+            Loan updated = commitPipeline.markAsReturned(id, () -> AdmissionFilter.releasePermit(request));
             return ResponseEntity.ok(updated);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
@@ -55,8 +156,88 @@ public class LoanController {
         }
     }
 
+    // Loans that could not be returned are reported per id, the rest are returned regardless
+    @PutMapping("/return")
+    public ResponseEntity<LoanReturnResult> returnLoans(@RequestBody LoanReturnRequest request) {
+        try {
+            return ResponseEntity.ok(loanService.returnLoans(request));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/device/{deviceId}")
-    public ResponseEntity<List<Loan>> getLoansByDeviceId(@PathVariable("deviceId") Long deviceId) {
-        return ResponseEntity.ok(loanService.getLoansByDeviceId(deviceId));
+    public ResponseEntity<List<Loan>> getLoansByDeviceId(@PathVariable("deviceId") Long deviceId,
+                                                         @RequestParam(value = "includeArchived", defaultValue = "false") boolean includeArchived,
+                                                         WebRequest request) {
+        String etag = Conditional.weak(versions.deviceLoansTag(deviceId));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return Conditional.ok(etag).body(loanService.getLoansByDeviceId(deviceId, includeArchived));
+    }
+
+    @GetMapping(value = "/device/{deviceId}", params = "include=device")
+    public ResponseEntity<List<LoanWithDevice>> getLoansWithDeviceByDeviceId(@PathVariable("deviceId") Long deviceId,
+                                                                             @RequestParam(value = "includeArchived", defaultValue = "false") boolean includeArchived,
+                                                                             WebRequest request) {
+        String etag = Conditional.weak(versions.deviceLoansTag(deviceId));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return Conditional.ok(etag).body(loanService.getLoansWithDeviceByDeviceId(deviceId, includeArchived));
+    }
+
+    @GetMapping("/device/{deviceId}/active")
+    public ResponseEntity<Loan> getActiveLoan(@PathVariable("deviceId") Long deviceId) {
+        return loanService.getActiveLoan(deviceId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+    }
+
+    // One value after another: newline separated for JSON, simply concatenated for CBOR
+    private void writeSequence(ObjectMapper mapper, OutputStream out, long from, long to, Long deviceId,
+                               boolean includeArchived) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        boolean text = !mapper.getFactory().canHandleBinaryNatively();
+        // Flushing every row would send a chunk per row and defeat response compression
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        loanService.exportLoans(from, to, deviceId, includeArchived, loan -> {
+            try {
+                writer.writeValue(generator, loan);
+                if (text) {
+                    generator.writeRaw('\n');
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        generator.flush();
+    }
+
+    private void writeCsv(OutputStream out, long from, long to, Long deviceId, boolean includeArchived) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write("id,deviceId,borrowedBy,startDate,endDate,returned,dueDate\n");
+        loanService.exportLoans(from, to, deviceId, includeArchived, loan -> {
+            try {
+                writer.write(loan.getId() + "," + (loan.getDeviceId() == null ? "" : loan.getDeviceId()) + ","
+                        + csvField(loan.getBorrowedBy()) + "," + loan.getStartDate() + "," + loan.getEndDate() + ","
+                        + loan.isReturned() + "," + (loan.getDueDate() == null ? "" : loan.getDueDate()) + "\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.flush();
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
     }
 }
@@ -0,0 +1,28 @@
+package edu.unac.controller;
+
+import edu.unac.domain.CursorPage;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+final class Pagination {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private Pagination() {
+    }
+
+    static int pageSize(Integer requested, int defaultSize, int maxSize) {
+        if (requested == null) {
+            return defaultSize;
+        }
+        return Math.max(1, Math.min(requested, maxSize));
+    }
+
+    static <T> ResponseEntity<List<T>> toResponse(CursorPage<T> page, String etag) {
+        ResponseEntity.BodyBuilder response = Conditional.ok(etag);
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+        }
+        return response.body(page.getItems());
+    }
+}
@@ -0,0 +1,27 @@
+package edu.unac.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// A returned loan moved out of the hot loan table by LoanArchiver, it keeps its original id
+@Entity
+@Table(name = "loan_archive", indexes = {
+        @Index(name = "idx_loan_archive_device", columnList = "device_id"),
+        @Index(name = "idx_loan_archive_start_date", columnList = "start_date")
+})
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ArchivedLoan {
+    @Id
+    private Long id;
+
+    private Long deviceId;
+    private String borrowedBy;
+    private long startDate;
+    private long endDate;
+    private Long dueDate;
+    private long archivedDate;
+}
@@ -0,0 +1,16 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CursorPage<T> {
+    private List<T> items;
+    // Id of the last item in this page, null when there is nothing left to read
+    private Long nextCursor;
+}
@@ -1,24 +1,50 @@
 package edu.unac.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
+@Table(indexes = @Index(name = "idx_device_status", columnList = "status"))
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 public class Device {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Pooled sequence so Hibernate can hand out ids in memory and batch the inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "device_seq")
+    @SequenceGenerator(name = "device_seq", sequenceName = "device_seq", allocationSize = 50)
     private Long id;
     private String name;
     private String type;
     private String location;
     private DeviceStatus status;
     private long addedDate;
+    // Id of the loan currently holding the device, maintained by LoanService
+    private Long activeLoanId;
+    // Checked by entity updates, the bulk updates in DeviceRepository bump it as well. Not part of
+    // the JSON, the read endpoints serve DeviceView and the two have to look the same
+    @JsonIgnore
+    @Version
+    @ColumnDefault("0")
+    private long version;
+
+    public Device(Long id, String name, String type, String location, DeviceStatus status, long addedDate) {
+        this(id, name, type, location, status, addedDate, null);
+    }
+
+    public Device(Long id, String name, String type, String location, DeviceStatus status, long addedDate,
+                  Long activeLoanId) {
+        this(id, name, type, location, status, addedDate, activeLoanId, 0L);
+    }
 }
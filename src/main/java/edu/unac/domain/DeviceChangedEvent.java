@@ -0,0 +1,21 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DeviceChangedEvent {
+    public enum Type {
+        REGISTERED,
+        UPDATED,
+        DELETED
+    }
+
+    private Type type;
+    private Long deviceId;
+    // State after the change, null when the device was deleted
+    private Device device;
+}
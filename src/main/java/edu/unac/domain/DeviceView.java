@@ -0,0 +1,26 @@
+package edu.unac.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Read-side copy of a device as the device endpoints serve it, with the borrower of its active loan
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DeviceView {
+    private Long id;
+    private String name;
+    private String type;
+    private String location;
+    private DeviceStatus status;
+    private long addedDate;
+    private Long activeLoanId;
+    // Only for DeviceReadModel to order concurrent writes, clients get the ETag instead
+    @JsonIgnore
+    private long version;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String activeBorrower;
+}
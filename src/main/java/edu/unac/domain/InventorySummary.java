@@ -0,0 +1,22 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class InventorySummary {
+    private Map<DeviceStatus, Long> devicesByStatus = new EnumMap<>(DeviceStatus.class);
+    private Map<String, Long> devicesByType = new TreeMap<>();
+    private Map<String, Long> devicesByLocation = new TreeMap<>();
+    private long activeLoans;
+    // Includes the archived ones, which are also counted on their own
+    private long returnedLoans;
+    private long archivedLoans;
+}
@@ -4,8 +4,16 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_loan_device_returned", columnList = "device_id, returned"),
+        @Index(name = "idx_loan_start_date", columnList = "start_date"),
+        @Index(name = "idx_loan_borrowed_by_returned", columnList = "borrowed_by, returned"),
+        @Index(name = "idx_loan_returned_due_date", columnList = "returned, due_date"),
+        @Index(name = "idx_loan_returned_end_date", columnList = "returned, end_date")
+})
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -19,4 +27,18 @@ public class Loan {
     private long startDate;
     private long endDate;
     private boolean returned;
+    // Optional, loans without one are never overdue
+    private Long dueDate;
+    // Checked by entity updates, the bulk updates in LoanRepository bump it as well
+    @Version
+    @ColumnDefault("0")
+    private long version;
+
+    public Loan(Long id, Long deviceId, String borrowedBy, long startDate, long endDate, boolean returned) {
+        this(id, deviceId, borrowedBy, startDate, endDate, returned, null);
+    }
+
+    public Loan(Long id, Long deviceId, String borrowedBy, long startDate, long endDate, boolean returned, Long dueDate) {
+        this(id, deviceId, borrowedBy, startDate, endDate, returned, dueDate, 0L);
+    }
 }
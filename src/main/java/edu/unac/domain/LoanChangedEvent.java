@@ -0,0 +1,21 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoanChangedEvent {
+    public enum Type {
+        REGISTERED,
+        RETURNED,
+        // Still active and past its due date, the loan itself is unchanged
+        OVERDUE
+    }
+
+    private Type type;
+    // State after the change, the device's status moved with it (LOANED on register, released on return)
+    private Loan loan;
+}
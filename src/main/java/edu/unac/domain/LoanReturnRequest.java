@@ -0,0 +1,16 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Either explicit loan ids or every active loan of one borrower
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoanReturnRequest {
+    private List<Long> loanIds;
+    private String borrowedBy;
+}
@@ -0,0 +1,31 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoanReturnResult {
+    private int returned;
+    private List<Outcome> results = new ArrayList<>();
+
+    public enum Status {
+        RETURNED,
+        NOT_FOUND,
+        ALREADY_RETURNED,
+        DEVICE_NOT_FOUND
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Outcome {
+        private Long loanId;
+        private Status status;
+    }
+}
@@ -0,0 +1,22 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// A loan row with the device columns a listing shows, read by one join, never an entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoanWithDevice {
+    private Long id;
+    private Long deviceId;
+    private String borrowedBy;
+    private long startDate;
+    private long endDate;
+    private boolean returned;
+    private Long dueDate;
+    private String deviceName;
+    private String deviceType;
+    private String deviceLocation;
+}
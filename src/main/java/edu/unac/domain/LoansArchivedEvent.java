@@ -0,0 +1,17 @@
+package edu.unac.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Set;
+
+// Loans moved from the hot table to the archive, they no longer show in the default listings
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoansArchivedEvent {
+    private List<Long> loanIds;
+    private Set<Long> deviceIds;
+}
@@ -0,0 +1,54 @@
+package edu.unac.repository;
+
+import edu.unac.domain.ArchivedLoan;
+import edu.unac.domain.Loan;
+import edu.unac.domain.LoanWithDevice;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// Reads come back as Loan so callers can merge them with the hot table
+public interface ArchivedLoanRepository extends JpaRepository<ArchivedLoan, Long> {
+
+    @Query("SELECT new edu.unac.domain.Loan(a.id, a.deviceId, a.borrowedBy, a.startDate, a.endDate, true, a.dueDate)" +
+            " FROM ArchivedLoan a WHERE a.deviceId = :deviceId ORDER BY a.id")
+    List<Loan> findLoansByDeviceId(@Param("deviceId") Long deviceId);
+
+    @Query("SELECT new edu.unac.domain.LoanWithDevice(a.id, a.deviceId, a.borrowedBy, a.startDate, a.endDate," +
+            " true, a.dueDate, d.name, d.type, d.location)" +
+            " FROM ArchivedLoan a LEFT JOIN Device d ON d.id = a.deviceId WHERE a.deviceId = :deviceId ORDER BY a.id")
+    List<LoanWithDevice> findWithDeviceByDeviceId(@Param("deviceId") Long deviceId);
+
+    @Query("SELECT new edu.unac.domain.Loan(a.id, a.deviceId, a.borrowedBy, a.startDate, a.endDate, true, a.dueDate)" +
+            " FROM ArchivedLoan a WHERE a.id = :id")
+    Optional<Loan> findLoanById(@Param("id") Long id);
+
+    @Query("SELECT a.id FROM ArchivedLoan a WHERE a.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    // Same contract as LoanRepository.streamForExport
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new edu.unac.domain.Loan(a.id, a.deviceId, a.borrowedBy, a.startDate, a.endDate, true, a.dueDate)" +
+            " FROM ArchivedLoan a WHERE a.startDate >= :from AND a.startDate < :to" +
+            " AND (:deviceId IS NULL OR a.deviceId = :deviceId)" +
+            " ORDER BY a.id")
+    Stream<Loan> streamForExport(@Param("from") long from, @Param("to") long to, @Param("deviceId") Long deviceId);
+
+    @Modifying
+    @Query("INSERT INTO ArchivedLoan (id, deviceId, borrowedBy, startDate, endDate, dueDate, archivedDate)" +
+            " SELECT l.id, l.deviceId, l.borrowedBy, l.startDate, l.endDate, l.dueDate, :archivedDate" +
+            " FROM Loan l WHERE l.id IN :ids AND l.returned = true")
+    int copyFromLoans(@Param("ids") Collection<Long> ids, @Param("archivedDate") long archivedDate);
+}
@@ -1,12 +1,97 @@
 package edu.unac.repository;
 
 import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.DeviceView;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 public interface DeviceRepository extends JpaRepository<Device, Long> {
 
+    // Always a query, a version-checked write has to start from the row as it is now
+    @Query("SELECT d FROM Device d WHERE d.id = :id")
+    Optional<Device> findCurrent(@Param("id") Long id);
+
     @Query("SELECT COUNT(l) > 0 FROM Loan l WHERE l.deviceId = :deviceId AND l.returned = false")
     boolean existsLoanByDeviceId(@Param("deviceId") Long deviceId);
+
+    @Query("SELECT d.status, COUNT(d) FROM Device d GROUP BY d.status")
+    List<Object[]> countByStatus();
+
+    @Query("SELECT d.type, COUNT(d) FROM Device d GROUP BY d.type")
+    List<Object[]> countByType();
+
+    @Query("SELECT d.location, COUNT(d) FROM Device d GROUP BY d.location")
+    List<Object[]> countByLocation();
+
+    // Conditional single-row transition, returns 0 when the device is missing or not in the expected status
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Device d SET d.status = :newStatus, d.version = d.version + 1 WHERE d.id = :id AND d.status = :expectedStatus")
+    int compareAndSetStatus(@Param("id") Long id,
+                            @Param("expectedStatus") DeviceStatus expectedStatus,
+                            @Param("newStatus") DeviceStatus newStatus);
+
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Device d SET d.activeLoanId = :loanId, d.version = d.version + 1 WHERE d.id = :id")
+    int setActiveLoanId(@Param("id") Long id, @Param("loanId") Long loanId);
+
+    // Clears the pointer and moves a LOANED device back to AVAILABLE, any other status is kept
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Device d SET d.activeLoanId = NULL, d.version = d.version + 1," +
+            " d.status = CASE WHEN d.status = edu.unac.domain.DeviceStatus.LOANED" +
+            " THEN edu.unac.domain.DeviceStatus.AVAILABLE ELSE d.status END" +
+            " WHERE d.id = :id AND (d.activeLoanId = :loanId OR d.activeLoanId IS NULL)")
+    int releaseLoan(@Param("id") Long id, @Param("loanId") Long loanId);
+
+    // Set-based releaseLoan for many returned loans at once
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Device d SET d.activeLoanId = NULL, d.version = d.version + 1," +
+            " d.status = CASE WHEN d.status = edu.unac.domain.DeviceStatus.LOANED" +
+            " THEN edu.unac.domain.DeviceStatus.AVAILABLE ELSE d.status END" +
+            " WHERE d.id IN :ids AND (d.activeLoanId IN :loanIds OR d.activeLoanId IS NULL)")
+    int releaseLoans(@Param("ids") Collection<Long> ids, @Param("loanIds") Collection<Long> loanIds);
+
+    @Query("SELECT d.id FROM Device d WHERE d.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    // Managed and locked until commit, changes to the rows are flushed as one JDBC batch
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT d FROM Device d WHERE d.id IN :ids")
+    List<Device> lockByIds(@Param("ids") Collection<Long> ids);
+
+    // Unmanaged rows, the persistence context stays empty while the search index loads
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new edu.unac.domain.Device(d.id, d.name, d.type, d.location, d.status, d.addedDate," +
+            " d.activeLoanId) FROM Device d ORDER BY d.id")
+    Stream<Device> streamForIndex();
+
+    // Rows for DeviceReadModel, the borrower comes from the device's active loan
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new edu.unac.domain.DeviceView(d.id, d.name, d.type, d.location, d.status, d.addedDate," +
+            " d.activeLoanId, d.version, l.borrowedBy)" +
+            " FROM Device d LEFT JOIN Loan l ON l.id = d.activeLoanId ORDER BY d.id")
+    Stream<DeviceView> streamViews();
+
+    @Query("SELECT new edu.unac.domain.DeviceView(d.id, d.name, d.type, d.location, d.status, d.addedDate," +
+            " d.activeLoanId, d.version, l.borrowedBy)" +
+            " FROM Device d LEFT JOIN Loan l ON l.id = d.activeLoanId WHERE d.id IN :ids")
+    List<DeviceView> findViews(@Param("ids") Collection<Long> ids);
 }
@@ -1,10 +1,92 @@
 package edu.unac.repository;
 
 import edu.unac.domain.Loan;
+import edu.unac.domain.LoanWithDevice;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface LoanRepository extends JpaRepository<Loan, Long> {
     List<Loan> findByDeviceId(Long deviceId);
+
+    // Returns 0 when the loan is missing or already returned
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Loan l SET l.returned = true, l.endDate = :endDate, l.version = l.version + 1 WHERE l.id = :id AND l.returned = false")
+    int markReturnedIfActive(@Param("id") Long id, @Param("endDate") long endDate);
+
+    // Locks the active rows so a concurrent single return waits and then sees them returned
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT l FROM Loan l WHERE l.id IN :ids AND l.returned = false")
+    List<Loan> lockActiveByIds(@Param("ids") Collection<Long> ids);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT l FROM Loan l WHERE l.borrowedBy = :borrowedBy AND l.returned = false")
+    List<Loan> lockActiveByBorrower(@Param("borrowedBy") String borrowedBy);
+
+    // Loans returned before the cutoff in id order, as [id, deviceId] pairs
+    @Query("SELECT l.id, l.deviceId FROM Loan l WHERE l.returned = true AND l.endDate < :cutoff ORDER BY l.id")
+    List<Object[]> findArchivable(@Param("cutoff") long cutoff, Pageable pageable);
+
+    @Query("SELECT l.id FROM Loan l WHERE l.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Loan l SET l.returned = true, l.endDate = :endDate, l.version = l.version + 1 WHERE l.id IN :ids AND l.returned = false")
+    int markReturned(@Param("ids") Collection<Long> ids, @Param("endDate") long endDate);
+
+    @Query("SELECT l.returned, COUNT(l) FROM Loan l GROUP BY l.returned")
+    List<Object[]> countByReturned();
+
+    // Served by idx_loan_returned_due_date, only read when the overdue tracker starts
+    @Query("SELECT l FROM Loan l WHERE l.returned = false AND l.dueDate IS NOT NULL")
+    List<Loan> findActiveWithDueDate();
+
+    @Query("SELECT l FROM Loan l WHERE l.id > :cursor" +
+            " AND (:returned IS NULL OR l.returned = :returned)" +
+            " AND (:deviceId IS NULL OR l.deviceId = :deviceId)" +
+            " ORDER BY l.id")
+    List<Loan> findPage(@Param("cursor") long cursor,
+                        @Param("returned") Boolean returned,
+                        @Param("deviceId") Long deviceId,
+                        Pageable pageable);
+
+    // Same page as findPage, device columns come from the join instead of a lookup per row.
+    // The left join keeps a loan whose device row is gone.
+    @Query("SELECT new edu.unac.domain.LoanWithDevice(l.id, l.deviceId, l.borrowedBy, l.startDate, l.endDate," +
+            " l.returned, l.dueDate, d.name, d.type, d.location)" +
+            " FROM Loan l LEFT JOIN Device d ON d.id = l.deviceId WHERE l.id > :cursor" +
+            " AND (:returned IS NULL OR l.returned = :returned)" +
+            " AND (:deviceId IS NULL OR l.deviceId = :deviceId)" +
+            " ORDER BY l.id")
+    List<LoanWithDevice> findPageWithDevice(@Param("cursor") long cursor,
+                                            @Param("returned") Boolean returned,
+                                            @Param("deviceId") Long deviceId,
+                                            Pageable pageable);
+
+    @Query("SELECT new edu.unac.domain.LoanWithDevice(l.id, l.deviceId, l.borrowedBy, l.startDate, l.endDate," +
+            " l.returned, l.dueDate, d.name, d.type, d.location)" +
+            " FROM Loan l LEFT JOIN Device d ON d.id = l.deviceId WHERE l.deviceId = :deviceId ORDER BY l.id")
+    List<LoanWithDevice> findWithDeviceByDeviceId(@Param("deviceId") Long deviceId);
+
+    // Constructor projection yields unmanaged rows, so the persistence context stays empty while streaming
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new edu.unac.domain.Loan(l.id, l.deviceId, l.borrowedBy, l.startDate, l.endDate, l.returned, l.dueDate)" +
+            " FROM Loan l WHERE l.startDate >= :from AND l.startDate < :to" +
+            " AND (:deviceId IS NULL OR l.deviceId = :deviceId)" +
+            " ORDER BY l.id")
+    Stream<Loan> streamForExport(@Param("from") long from, @Param("to") long to, @Param("deviceId") Long deviceId);
 }
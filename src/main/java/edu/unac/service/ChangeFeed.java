@@ -0,0 +1,195 @@
+package edu.unac.service;
+
+import edu.unac.domain.DeviceChangedEvent;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.domain.LoansArchivedEvent;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fans committed device and loan changes out to Server-Sent Events subscribers.
+ *
+ * <p>Publishing only appends to a bounded history and offers to each subscriber's bounded
+ * queue, so a slow client never holds up a write. A client that falls behind its buffer,
+ * or resumes from an id no longer in the history, gets a {@code resync} event telling it
+ * to reload the lists once.
+ */
+@Component
+public class ChangeFeed {
+    static final String RESYNC = "resync";
+
+    // Ids from a previous run can't be resumed, the epoch makes them recognisable
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final int historySize;
+    private final int clientBufferSize;
+    private final long timeoutMillis;
+
+    private final ArrayDeque<FeedEvent> history = new ArrayDeque<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("change-feed-heartbeat").factory());
+    private long lastSequence;
+
+    public ChangeFeed(@Value("${inventory.events.history-size:10000}") int historySize,
+                      @Value("${inventory.events.client-buffer-size:1000}") int clientBufferSize,
+                      @Value("${inventory.events.timeout-ms:1800000}") long timeoutMillis) {
+        this.historySize = historySize;
+        this.clientBufferSize = clientBufferSize;
+        this.timeoutMillis = timeoutMillis;
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeat, 15, 15, TimeUnit.SECONDS);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceChanged(DeviceChangedEvent event) {
+        append("device", event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLoanChanged(LoanChangedEvent event) {
+        append("loan", event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLoansArchived(LoansArchivedEvent event) {
+        append("archived", event);
+    }
+
+    public SseEmitter subscribe(String lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+
+        // Backlog and registration under the same lock, so no event is missed or sent twice
+        synchronized (this) {
+            backlog(lastEventId).forEach(subscriber::offer);
+            subscribers.add(subscriber);
+        }
+        return emitter;
+    }
+
+    synchronized List<FeedEvent> backlog(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return List.of();
+        }
+
+        long after = parseSequence(lastEventId);
+        long oldestKept = history.isEmpty() ? lastSequence + 1 : history.getFirst().sequence();
+        if (after < 0 || after > lastSequence || after < oldestKept - 1) {
+            return List.of(resyncEvent());
+        }
+
+        List<FeedEvent> missed = new ArrayList<>();
+        for (FeedEvent event : history) {
+            if (event.sequence() > after) {
+                missed.add(event);
+            }
+        }
+        return missed;
+    }
+
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        heartbeat.shutdownNow();
+        senders.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private synchronized void append(String name, Object data) {
+        FeedEvent event = new FeedEvent(++lastSequence, name, data);
+        history.addLast(event);
+        if (history.size() > historySize) {
+            history.removeFirst();
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    private synchronized FeedEvent resyncEvent() {
+        return new FeedEvent(lastSequence, RESYNC, Map.of());
+    }
+
+    private long parseSequence(String lastEventId) {
+        int separator = lastEventId.indexOf(':');
+        if (separator < 0 || !epoch.equals(lastEventId.substring(0, separator))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(lastEventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void sendHeartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(null);
+        }
+    }
+
+    record FeedEvent(long sequence, String name, Object data) {
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final BlockingQueue<Optional<FeedEvent>> queue = new ArrayBlockingQueue<>(clientBufferSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        // A null event is a heartbeat comment
+        private void offer(FeedEvent event) {
+            if (!queue.offer(Optional.ofNullable(event))) {
+                // Too far behind, drop the backlog and have the client reload instead
+                queue.clear();
+                queue.offer(Optional.of(resyncEvent()));
+            }
+            if (draining.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                Optional<FeedEvent> next;
+                while ((next = queue.poll()) != null) {
+                    emitter.send(next.isEmpty() ? SseEmitter.event().comment("keep-alive") : toSse(next.get()));
+                }
+            } catch (IOException | IllegalStateException e) {
+                subscribers.remove(this);
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private SseEmitter.SseEventBuilder toSse(FeedEvent event) {
+            return SseEmitter.event()
+                    .id(epoch + ":" + event.sequence())
+                    .name(event.name())
+                    .data(event.data(), MediaType.APPLICATION_JSON);
+        }
+    }
+}
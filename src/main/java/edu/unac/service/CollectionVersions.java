@@ -0,0 +1,96 @@
+package edu.unac.service;
+
+import edu.unac.domain.DeviceChangedEvent;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.domain.LoansArchivedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counters behind the ETags of the device and loan endpoints.
+ *
+ * <p>Every write in {@link DeviceService} and {@link LoanService} publishes a change event and
+ * the counters move once it has committed. Callers must read a tag before loading the data it
+ * describes: a write landing in between then only costs the client one extra full response,
+ * never a 304 for stale data.
+ */
+@Component
+public class CollectionVersions {
+    // Tags from a previous run must never match, counters restart at zero
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong devices = new AtomicLong();
+    private final AtomicLong loans = new AtomicLong();
+    // Entries stay after a delete so the old tag of a removed device keeps missing
+    private final Map<Long, Long> deviceVersions = new ConcurrentHashMap<>();
+    private final Map<Long, Long> deviceLoanVersions = new ConcurrentHashMap<>();
+
+    // A device whose loans are all returned can be deleted, the loan listings that join its
+    // columns then show nulls, so their tags move as well
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceChanged(DeviceChangedEvent event) {
+        long version = sequence.incrementAndGet();
+        devices.set(version);
+        deviceVersions.put(event.getDeviceId(), version);
+        if (event.getType() == DeviceChangedEvent.Type.DELETED) {
+            loans.set(version);
+            deviceLoanVersions.put(event.getDeviceId(), version);
+        }
+    }
+
+    // A loan also moves its device's status, so the device side is bumped too
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLoanChanged(LoanChangedEvent event) {
+        if (event.getType() == LoanChangedEvent.Type.OVERDUE) {
+            return;
+        }
+        long version = sequence.incrementAndGet();
+        loans.set(version);
+        devices.set(version);
+        Long deviceId = event.getLoan().getDeviceId();
+        if (deviceId != null) {
+            deviceVersions.put(deviceId, version);
+            deviceLoanVersions.put(deviceId, version);
+        }
+    }
+
+    // Archived loans drop out of the hot listings, device data is unchanged
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLoansArchived(LoansArchivedEvent event) {
+        long version = sequence.incrementAndGet();
+        loans.set(version);
+        for (Long deviceId : event.getDeviceIds()) {
+            deviceLoanVersions.put(deviceId, version);
+        }
+    }
+
+    // DeviceReadModel served something other than the table holds, the views it fixed get new tags
+    public void onDevicesRepaired(Collection<Long> deviceIds) {
+        long version = sequence.incrementAndGet();
+        devices.set(version);
+        for (Long deviceId : deviceIds) {
+            deviceVersions.put(deviceId, version);
+        }
+    }
+
+    public String devicesTag() {
+        return epoch + "-d" + devices.get();
+    }
+
+    public String loansTag() {
+        return epoch + "-l" + loans.get();
+    }
+
+    public String deviceTag(Long deviceId) {
+        return epoch + "-d" + deviceId + "-" + deviceVersions.getOrDefault(deviceId, 0L);
+    }
+
+    public String deviceLoansTag(Long deviceId) {
+        return epoch + "-dl" + deviceId + "-" + deviceLoanVersions.getOrDefault(deviceId, 0L);
+    }
+}
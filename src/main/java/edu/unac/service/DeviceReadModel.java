@@ -0,0 +1,422 @@
+package edu.unac.service;
+
+import edu.unac.domain.CursorPage;
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.DeviceView;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.repository.DeviceRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Devices as the device endpoints serve them, held in memory by id and by status so reads
+ * never reach JPA. Readers go straight to concurrent skip-list maps without a lock, writers
+ * take turns on a monitor.
+ *
+ * <p>The maps are filled from one join at startup. After that two sources keep them current,
+ * both only once the write has committed:
+ * <ul>
+ *   <li>Hibernate's post-commit entity events for Device. Registration, import, status changes
+ *   and deletes are seen this way, including writes made through the repository directly.</li>
+ *   <li>Loan registration and return, which move the device with bulk updates Hibernate never
+ *   reports. The devices a transaction touched are read back in one query after it commits.</li>
+ * </ul>
+ * Callbacks from concurrent transactions can arrive out of order, so a row only replaces one
+ * with a lower version. Deleted ids are remembered for a minute, long enough for callbacks and
+ * reads that began before the delete, so those cannot bring them back. {@link #verify()} removes
+ * anything arriving later.
+ *
+ * <p>{@link #verify()} walks the table and the view side by side, repairs what differs and
+ * counts it. It runs every {@code inventory.read-model.verify.interval}.
+ */
+@Component
+// Filled at startup rather than on the first request, which would pay for the whole table
+@Lazy(false)
+public class DeviceReadModel {
+    private static final Logger log = LoggerFactory.getLogger(DeviceReadModel.class);
+    private static final long TOMBSTONE_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final DeviceRepository deviceRepository;
+    private final EntityManagerFactory entityManagerFactory;
+    private final TransactionTemplate readTransaction;
+    private final MeterRegistry registry;
+    private final CollectionVersions versions;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("device-read-model").factory());
+
+    // Writers hold writeLock, readers take whatever the maps show
+    private final Object writeLock = new Object();
+    private volatile Views views = new Views();
+    // Guarded by writeLock. Deleted id to the time it went, oldest first so expired ones come off the front
+    private final LinkedHashMap<Long, Long> deleted = new LinkedHashMap<>();
+    // Types and locations repeat across many devices, one string per value is kept
+    private final Map<String, String> labels = new ConcurrentHashMap<>();
+
+    public DeviceReadModel(DeviceRepository deviceRepository,
+                           EntityManagerFactory entityManagerFactory,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry registry,
+                           CollectionVersions versions,
+                           @Value("${inventory.read-model.verify.enabled:true}") boolean verifyEnabled,
+                           @Value("${inventory.read-model.verify.interval:15m}") Duration verifyInterval) {
+        this.deviceRepository = deviceRepository;
+        this.entityManagerFactory = entityManagerFactory;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.registry = registry;
+        this.versions = versions;
+        if (verifyEnabled) {
+            scheduler.scheduleWithFixedDelay(this::verifySafely, verifyInterval.toMillis(), verifyInterval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Listeners first, so nothing committed while the table is read is missed
+    @PostConstruct
+    void start() {
+        EntityChanges changes = new EntityChanges();
+        EventListenerRegistry listeners = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, changes);
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, changes);
+        listeners.appendListeners(EventType.POST_COMMIT_DELETE, changes);
+        rebuild();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /** Reads the whole table into fresh maps, readers see the old ones until it is done. */
+    public void rebuild() {
+        synchronized (writeLock) {
+            Views fresh = new Views();
+            readTransaction.executeWithoutResult(status -> {
+                try (Stream<DeviceView> rows = deviceRepository.streamViews()) {
+                    rows.forEach(row -> {
+                        if (!deleted.containsKey(row.getId())) {
+                            fresh.put(canonical(row), null);
+                        }
+                    });
+                }
+            });
+            views = fresh;
+        }
+    }
+
+    public Optional<DeviceView> getDevice(Long id) {
+        return Optional.ofNullable(views.byId.get(id));
+    }
+
+    // Keyset paging over the id-ordered maps, the cursor is the last id returned
+    public CursorPage<DeviceView> getDevicePage(Long cursor, int size, DeviceStatus status, String type, String location) {
+        Views current = views;
+        NavigableMap<Long, DeviceView> source = status == null ? current.byId : current.byStatus.get(status);
+        List<DeviceView> items = new ArrayList<>(size);
+        for (DeviceView device : source.tailMap(cursor == null ? 0L : cursor, false).values()) {
+            if ((type != null && !type.equals(device.getType()))
+                    || (location != null && !location.equals(device.getLocation()))) {
+                continue;
+            }
+            if (items.size() == size) {
+                return new CursorPage<>(items, items.get(size - 1).getId());
+            }
+            items.add(device);
+        }
+        return new CursorPage<>(items, null);
+    }
+
+    public int size() {
+        return views.byId.size();
+    }
+
+    // Collected per transaction and read back in one query once it commits
+    @EventListener
+    public void onLoanChanged(LoanChangedEvent event) {
+        Long deviceId = event.getLoan().getDeviceId();
+        if (deviceId == null || event.getType() == LoanChangedEvent.Type.OVERDUE) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            reload(Set.of(deviceId));
+            return;
+        }
+        PendingReload pending = (PendingReload) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingReload();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.deviceIds.add(deviceId);
+    }
+
+    /**
+     * Compares every row with the view and repairs what differs: rows the view lacks, rows it
+     * holds an older version of, and devices it still has that are gone from the table.
+     * Returns the number of repaired devices.
+     */
+    public int verify() {
+        Map<String, Integer> repairs = new TreeMap<>();
+        List<Long> repairedIds = new ArrayList<>();
+        List<Long> unseen = new ArrayList<>();
+        readTransaction.executeWithoutResult(status -> {
+            Iterator<DeviceView> held = views.byId.values().iterator();
+            DeviceView next = held.hasNext() ? held.next() : null;
+            try (Stream<DeviceView> rows = deviceRepository.streamViews()) {
+                for (Iterator<DeviceView> table = rows.iterator(); table.hasNext(); ) {
+                    DeviceView row = table.next();
+                    while (next != null && next.getId() < row.getId()) {
+                        unseen.add(next.getId());
+                        next = held.hasNext() ? held.next() : null;
+                    }
+                    if (next == null || next.getId() > row.getId()) {
+                        if (repair(row)) {
+                            repairs.merge("missing", 1, Integer::sum);
+                            repairedIds.add(row.getId());
+                        }
+                    } else {
+                        if (!next.equals(row) && repair(row)) {
+                            repairs.merge("stale", 1, Integer::sum);
+                            repairedIds.add(row.getId());
+                        }
+                        next = held.hasNext() ? held.next() : null;
+                    }
+                }
+            }
+            while (next != null) {
+                unseen.add(next.getId());
+                next = held.hasNext() ? held.next() : null;
+            }
+        });
+
+        // Inserted after the walk passed them, or really gone
+        if (!unseen.isEmpty()) {
+            Set<Long> gone = new HashSet<>(unseen);
+            for (DeviceView row : readTransaction.execute(status -> deviceRepository.findViews(unseen))) {
+                gone.remove(row.getId());
+                put(row);
+            }
+            for (Long id : gone) {
+                if (views.byId.containsKey(id)) {
+                    remove(id);
+                    repairs.merge("extra", 1, Integer::sum);
+                    repairedIds.add(id);
+                }
+            }
+        }
+
+        // Clients holding a tag of the wrong body must not keep getting 304 for it
+        if (!repairedIds.isEmpty()) {
+            versions.onDevicesRepaired(repairedIds);
+        }
+        repairs.forEach((reason, count) ->
+                registry.counter("inventory.read_model.repairs", "reason", reason).increment(count));
+        pruneTombstones(System.nanoTime());
+        int repaired = repairs.values().stream().mapToInt(Integer::intValue).sum();
+        if (repaired > 0) {
+            log.warn("Device read model differed from the table and was repaired: {}", repairs);
+        }
+        return repaired;
+    }
+
+    private void verifySafely() {
+        try {
+            verify();
+        } catch (RuntimeException e) {
+            log.warn("Verifying the device read model failed, retrying on the next run", e);
+        }
+    }
+
+    // After commit this still runs on the writer's connection, a second one could wait on a full pool
+    private void reload(Collection<Long> deviceIds) {
+        List<DeviceView> rows = deviceRepository.findViews(deviceIds);
+        Set<Long> missing = new HashSet<>(deviceIds);
+        for (DeviceView row : rows) {
+            missing.remove(row.getId());
+            put(row);
+        }
+        missing.forEach(this::remove);
+    }
+
+    // Entity writes carry no borrower, it is kept while the active loan stays the same
+    private void putEntity(Device device) {
+        synchronized (writeLock) {
+            DeviceView current = views.byId.get(device.getId());
+            String borrower = current != null && Objects.equals(current.getActiveLoanId(), device.getActiveLoanId())
+                    ? current.getActiveBorrower() : null;
+            put(new DeviceView(device.getId(), device.getName(), device.getType(), device.getLocation(),
+                    device.getStatus(), device.getAddedDate(), device.getActiveLoanId(), device.getVersion(), borrower));
+        }
+    }
+
+    private void put(DeviceView row) {
+        synchronized (writeLock) {
+            if (deleted.containsKey(row.getId())) {
+                return;
+            }
+            DeviceView current = views.byId.get(row.getId());
+            if (current == null || current.getVersion() <= row.getVersion()) {
+                views.put(canonical(row), current);
+            }
+        }
+    }
+
+    // Same as put, except that a row differing at the same version also replaces the view's copy
+    private boolean repair(DeviceView row) {
+        synchronized (writeLock) {
+            DeviceView current = views.byId.get(row.getId());
+            if (deleted.containsKey(row.getId()) || (current != null && current.getVersion() > row.getVersion())) {
+                return false;
+            }
+            views.put(canonical(row), current);
+            return true;
+        }
+    }
+
+    /** Forgets the ids deleted longer than the retention before now. */
+    void pruneTombstones(long now) {
+        synchronized (writeLock) {
+            Iterator<Long> deletedAt = deleted.values().iterator();
+            while (deletedAt.hasNext() && now - deletedAt.next() >= TOMBSTONE_RETENTION_NANOS) {
+                deletedAt.remove();
+            }
+        }
+    }
+
+    boolean isTombstoned(Long id) {
+        synchronized (writeLock) {
+            return deleted.containsKey(id);
+        }
+    }
+
+    private void remove(Long id) {
+        synchronized (writeLock) {
+            long now = System.nanoTime();
+            // Taken out first, a repeated delete moves to the back
+            deleted.remove(id);
+            deleted.put(id, now);
+            pruneTombstones(now);
+            DeviceView current = views.byId.remove(id);
+            if (current != null && current.getStatus() != null) {
+                views.byStatus.get(current.getStatus()).remove(id);
+            }
+        }
+    }
+
+    private DeviceView canonical(DeviceView row) {
+        if (row.getType() != null) {
+            row.setType(labels.computeIfAbsent(row.getType(), label -> label));
+        }
+        if (row.getLocation() != null) {
+            row.setLocation(labels.computeIfAbsent(row.getLocation(), label -> label));
+        }
+        return row;
+    }
+
+    private static final class Views {
+        private final ConcurrentSkipListMap<Long, DeviceView> byId = new ConcurrentSkipListMap<>();
+        private final Map<DeviceStatus, ConcurrentSkipListMap<Long, DeviceView>> byStatus = new EnumMap<>(DeviceStatus.class);
+
+        private Views() {
+            for (DeviceStatus status : DeviceStatus.values()) {
+                byStatus.put(status, new ConcurrentSkipListMap<>());
+            }
+        }
+
+        // Added under the new status before leaving the old one, a reader may briefly see both
+        private void put(DeviceView row, DeviceView previous) {
+            byId.put(row.getId(), row);
+            if (row.getStatus() != null) {
+                byStatus.get(row.getStatus()).put(row.getId(), row);
+            }
+            if (previous != null && previous.getStatus() != null && previous.getStatus() != row.getStatus()) {
+                byStatus.get(previous.getStatus()).remove(row.getId());
+            }
+        }
+    }
+
+    private final class PendingReload implements TransactionSynchronization {
+        private final Set<Long> deviceIds = new HashSet<>();
+
+        // Ahead of CollectionVersions, a new ETag must never be served with the old view
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+
+        @Override
+        public void afterCommit() {
+            reload(deviceIds);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(DeviceReadModel.this);
+        }
+    }
+
+    private final class EntityChanges implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+            PostCommitDeleteEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            putEntity((Device) event.getEntity());
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            putEntity((Device) event.getEntity());
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            remove((Long) event.getId());
+        }
+
+        // Rolled back writes never reached the view
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return persister.getMappedClass() == Device.class;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package edu.unac.service;
+
+import edu.unac.domain.CursorPage;
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceChangedEvent;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.repository.DeviceRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory trigram index over device name, type and location.
+ *
+ * <p>Each device gets a document number in the order it was indexed. Its text is cut into words
+ * and every trigram is posted to an ascending array of document numbers. Two word-start
+ * trigrams are posted as well ("  p" and " pr" for "projector"). A query word of three or more
+ * characters matches anywhere inside a word. A shorter query word matches the start of a word.
+ * All query words must match. Candidates come from intersecting the posting lists, smallest
+ * first, and are confirmed against the stored text before they are returned.
+ *
+ * <p>Deleted devices only lose their live bit at first. Once they make up half of the documents
+ * the index is compacted: the live documents are renumbered in the same order and the posting
+ * lists rewritten. Cursors carry an insertion sequence rather than the document number, so a
+ * compaction between two pages does not move them.
+ *
+ * <p>The table is read once at startup. After that, device and loan events keep the index in
+ * sync once they commit. Loan events only change the status used by the filter. They can arrive
+ * out of order, so each document keeps the loan holding it: a return only frees the device from
+ * that loan, and a return seen before its registration is remembered for a minute so the late
+ * registration is ignored.
+ */
+@Component
+public class DeviceSearchIndex {
+    private static final long NO_LOAN = 0L;
+    private static final long RETURNED_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // Fewer dead documents than this are not worth rewriting the postings for
+    private static final int COMPACTION_MIN_DEAD = 1024;
+
+    private final DeviceRepository deviceRepository;
+    private final TransactionTemplate transaction;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Everything below is guarded by lock
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final Map<Long, Integer> documentsById = new HashMap<>();
+    private long[] deviceIds = new long[1024];
+    private String[] texts = new String[1024];
+    private byte[] statuses = new byte[1024];
+    private long[] activeLoans = new long[1024];
+    // Insertion sequence of each document, ascending, kept by compaction
+    private long[] sequences = new long[1024];
+    private long nextSequence;
+    // Loan id to System.nanoTime() of the return, oldest first
+    private final LinkedHashMap<Long, Long> returnedEarly = new LinkedHashMap<>();
+    private final BitSet live = new BitSet();
+    private int documentCount;
+    private int deadCount;
+
+    public DeviceSearchIndex(DeviceRepository deviceRepository, PlatformTransactionManager transactionManager) {
+        this.deviceRepository = deviceRepository;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.transaction.setReadOnly(true);
+    }
+
+    /** Drops the index and reads every device again, searches wait until it is done. */
+    @PostConstruct
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            documentsById.clear();
+            returnedEarly.clear();
+            live.clear();
+            documentCount = 0;
+            deadCount = 0;
+            nextSequence = 0;
+            transaction.executeWithoutResult(status -> {
+                try (Stream<Device> devices = deviceRepository.streamForIndex()) {
+                    devices.forEach(this::add);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceChanged(DeviceChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            switch (event.getType()) {
+                case REGISTERED -> add(event.getDevice());
+                case UPDATED -> setStatus(event.getDeviceId(), event.getDevice().getStatus());
+                case DELETED -> {
+                    Integer document = documentsById.remove(event.getDeviceId());
+                    if (document != null) {
+                        live.clear(document);
+                        texts[document] = null;
+                        deadCount++;
+                        if (deadCount >= COMPACTION_MIN_DEAD && deadCount * 2 >= documentCount) {
+                            compact();
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Mirrors what registerLoan and releaseLoan do to the device row
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLoanChanged(LoanChangedEvent event) {
+        Long deviceId = event.getLoan().getDeviceId();
+        if (deviceId == null || event.getType() == LoanChangedEvent.Type.OVERDUE) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer document = documentsById.get(deviceId);
+            if (document == null) {
+                return;
+            }
+            long loanId = event.getLoan().getId();
+            if (event.getType() == LoanChangedEvent.Type.REGISTERED) {
+                if (returnedEarly.remove(loanId) == null) {
+                    statuses[document] = (byte) DeviceStatus.LOANED.ordinal();
+                    activeLoans[document] = loanId;
+                }
+            } else if (activeLoans[document] == loanId
+                    || (activeLoans[document] == NO_LOAN && statuses[document] == DeviceStatus.LOANED.ordinal())) {
+                activeLoans[document] = NO_LOAN;
+                if (statuses[document] == DeviceStatus.LOANED.ordinal()) {
+                    statuses[document] = (byte) DeviceStatus.AVAILABLE.ordinal();
+                }
+            } else {
+                rememberReturn(loanId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Device ids matching every word of the query, in index order, optionally limited to one
+     * status. The cursor is the insertion sequence of the last match already returned.
+     */
+    public CursorPage<Long> search(String query, DeviceStatus status, Long cursor, int size) {
+        List<String> words = words(query);
+        if (words.isEmpty()) {
+            throw new IllegalArgumentException("Search query must contain letters or digits");
+        }
+
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>();
+            for (String word : words) {
+                for (long trigram : queryTrigrams(word)) {
+                    Postings list = postings.get(trigram);
+                    if (list == null) {
+                        return new CursorPage<>(List.of(), null);
+                    }
+                    lists.add(list);
+                }
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+
+            Postings driver = lists.get(0);
+            int[] positions = new int[lists.size()];
+            int from = cursor == null ? 0 : firstAfter(cursor);
+
+            List<Long> ids = new ArrayList<>(size);
+            int lastDocument = -1;
+            for (int i = driver.lowerBound(from, 0); i < driver.size; i++) {
+                int document = driver.documents[i];
+                if (!live.get(document)
+                        || (status != null && statuses[document] != status.ordinal())
+                        || !inAll(lists, positions, document)
+                        || !matches(texts[document], words)) {
+                    continue;
+                }
+                if (ids.size() == size) {
+                    // One more match exists, so there is a next page
+                    return new CursorPage<>(ids, sequences[lastDocument]);
+                }
+                ids.add(deviceIds[document]);
+                lastDocument = document;
+            }
+            return new CursorPage<>(ids, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(Device device) {
+        if (device.getId() == null || documentsById.containsKey(device.getId())) {
+            return;
+        }
+        int document = documentCount++;
+        if (document == deviceIds.length) {
+            int capacity = deviceIds.length * 2;
+            deviceIds = Arrays.copyOf(deviceIds, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+            activeLoans = Arrays.copyOf(activeLoans, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+        }
+
+        List<String> words = new ArrayList<>();
+        words.addAll(words(device.getName()));
+        words.addAll(words(device.getType()));
+        words.addAll(words(device.getLocation()));
+        for (String word : words) {
+            for (long trigram : indexTrigrams(word)) {
+                postings.computeIfAbsent(trigram, key -> new Postings()).add(document);
+            }
+        }
+
+        deviceIds[document] = device.getId();
+        texts[document] = " " + String.join(" ", words);
+        statuses[document] = (byte) (device.getStatus() == null ? DeviceStatus.AVAILABLE : device.getStatus()).ordinal();
+        activeLoans[document] = device.getActiveLoanId() == null ? NO_LOAN : device.getActiveLoanId();
+        sequences[document] = nextSequence++;
+        documentsById.put(device.getId(), document);
+        live.set(document);
+    }
+
+    private void setStatus(Long deviceId, DeviceStatus status) {
+        Integer document = documentsById.get(deviceId);
+        if (document != null && status != null) {
+            statuses[document] = (byte) status.ordinal();
+        }
+    }
+
+    // Moves the live documents down over the dead ones, keeping their order, and drops what is left over
+    private void compact() {
+        int[] remap = new int[documentCount];
+        int count = 0;
+        for (int document = 0; document < documentCount; document++) {
+            if (!live.get(document)) {
+                remap[document] = -1;
+                continue;
+            }
+            remap[document] = count;
+            deviceIds[count] = deviceIds[document];
+            texts[count] = texts[document];
+            statuses[count] = statuses[document];
+            activeLoans[count] = activeLoans[document];
+            sequences[count] = sequences[document];
+            count++;
+        }
+
+        int capacity = Math.max(1024, count * 2);
+        deviceIds = Arrays.copyOf(deviceIds, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        Arrays.fill(texts, count, capacity, null);
+        statuses = Arrays.copyOf(statuses, capacity);
+        activeLoans = Arrays.copyOf(activeLoans, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+
+        postings.values().removeIf(list -> list.remap(remap) == 0);
+        documentsById.replaceAll((id, document) -> remap[document]);
+        live.clear();
+        live.set(0, count);
+        documentCount = count;
+        deadCount = 0;
+    }
+
+    // First document indexed after the one with the given sequence
+    private int firstAfter(long sequence) {
+        int low = 0;
+        int high = documentCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sequences[mid] <= sequence) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    int documentCount() {
+        lock.readLock().lock();
+        try {
+            return documentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The loan's registration has not been seen yet, or it was and the device moved on to another loan
+    private void rememberReturn(long loanId) {
+        long now = System.nanoTime();
+        returnedEarly.put(loanId, now);
+        Iterator<Long> returnedAt = returnedEarly.values().iterator();
+        while (returnedAt.hasNext() && now - returnedAt.next() >= RETURNED_RETENTION_NANOS) {
+            returnedAt.remove();
+        }
+    }
+
+    // Documents only ever grow, so each list's search position moves forward with the driver
+    private static boolean inAll(List<Postings> lists, int[] positions, int document) {
+        for (int i = 1; i < lists.size(); i++) {
+            Postings list = lists.get(i);
+            positions[i] = list.lowerBound(document, positions[i]);
+            if (positions[i] == list.size || list.documents[positions[i]] != document) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Trigrams can match across word parts, the stored text has the final say
+    private static boolean matches(String text, List<String> words) {
+        for (String word : words) {
+            String needle = word.length() < 3 ? " " + word : word;
+            if (!text.contains(needle)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (!word.isEmpty()) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (!word.isEmpty()) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static List<Long> indexTrigrams(String word) {
+        List<Long> trigrams = new ArrayList<>(word.length() + 2);
+        String padded = "  " + word;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(pack(padded, i));
+        }
+        return trigrams;
+    }
+
+    private static List<Long> queryTrigrams(String word) {
+        if (word.length() < 3) {
+            return List.of(pack(" ".repeat(3 - word.length()) + word, 0));
+        }
+        List<Long> trigrams = new ArrayList<>(word.length() - 2);
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            trigrams.add(pack(word, i));
+        }
+        return trigrams;
+    }
+
+    private static long pack(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    // Ascending document numbers, appended in order because documents are indexed one at a time
+    private static final class Postings {
+        private int[] documents = new int[4];
+        private int size;
+
+        private void add(int document) {
+            if (size > 0 && documents[size - 1] == document) {
+                return;
+            }
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            documents[size++] = document;
+        }
+
+        // Renumbers the documents, dropping the ones mapped to -1, and returns the new size
+        private int remap(int[] remap) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int document = remap[documents[i]];
+                if (document >= 0) {
+                    documents[kept++] = document;
+                }
+            }
+            size = kept;
+            if (documents.length > 4 && size < documents.length / 4) {
+                documents = Arrays.copyOf(documents, Math.max(4, size * 2));
+            }
+            return size;
+        }
+
+        // First position at or after start holding a document >= target
+        private int lowerBound(int target, int start) {
+            int low = start;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (documents[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
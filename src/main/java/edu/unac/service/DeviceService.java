@@ -1,49 +1,161 @@
 package edu.unac.service;
 
+import edu.unac.domain.CursorPage;
 import edu.unac.domain.Device;
+import edu.unac.domain.DeviceChangedEvent;
+import edu.unac.domain.DeviceImportResult;
 import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.DeviceView;
+import edu.unac.domain.InventorySummary;
+import edu.unac.repository.ArchivedLoanRepository;
 import edu.unac.repository.DeviceRepository;
+import edu.unac.repository.LoanRepository;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
 @Service
+@Timed("inventory.service")
 public class DeviceService {
     @Autowired
     private DeviceRepository deviceRepository;
+    @Autowired
+    private LoanRepository loanRepository;
+    @Autowired
+    private ArchivedLoanRepository archivedLoanRepository;
+    @Autowired
+    private DeviceSearchIndex searchIndex;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    @Autowired
+    private OptimisticRetry optimisticRetry;
+    @Autowired
+    private DeviceReadModel readModel;
 
-    public DeviceService(DeviceRepository deviceRepository) {
+    public DeviceService(DeviceRepository deviceRepository, LoanRepository loanRepository,
+                         ArchivedLoanRepository archivedLoanRepository, DeviceSearchIndex searchIndex,
+                         ApplicationEventPublisher eventPublisher, OptimisticRetry optimisticRetry,
+                         DeviceReadModel readModel) {
         this.deviceRepository = deviceRepository;
+        this.loanRepository = loanRepository;
+        this.archivedLoanRepository = archivedLoanRepository;
+        this.searchIndex = searchIndex;
+        this.eventPublisher = eventPublisher;
+        this.optimisticRetry = optimisticRetry;
+        this.readModel = readModel;
     }
 
     public Device registerDevice(Device device) {
-        if (device.getName() == null || device.getName().length() < 3) {
-            throw new IllegalArgumentException("Device name must be at least 3 characters long");
+        prepareNewDevice(device);
+
+        Device saved = deviceRepository.save(device);
+        eventPublisher.publishEvent(new DeviceChangedEvent(DeviceChangedEvent.Type.REGISTERED, saved.getId(), saved));
+        return saved;
+    }
+
+    public DeviceImportResult importDevices(Iterator<Device> rows, int batchSize) {
+        DeviceImportResult result = new DeviceImportResult();
+        List<Device> batch = new ArrayList<>(batchSize);
+        List<Integer> batchRows = new ArrayList<>(batchSize);
+
+        for (int row = 0; ; row++) {
+            Device device;
+            try {
+                if (!rows.hasNext()) {
+                    break;
+                }
+                device = rows.next();
+            } catch (IllegalArgumentException e) {
+                // The reader cannot resynchronise after a malformed row, so the rest of the body is dropped
+                result.getErrors().add(new DeviceImportResult.RowError(row, e.getMessage()));
+                break;
+            }
+
+            try {
+                if (device == null) {
+                    throw new IllegalArgumentException("Row is empty");
+                }
+                prepareNewDevice(device);
+                batch.add(device);
+                batchRows.add(row);
+            } catch (IllegalArgumentException e) {
+                result.getErrors().add(new DeviceImportResult.RowError(row, e.getMessage()));
+            }
+
+            if (batch.size() == batchSize) {
+                saveImportBatch(batch, batchRows, result);
+            }
         }
+        saveImportBatch(batch, batchRows, result);
 
-        device.setStatus(DeviceStatus.AVAILABLE);
-        device.setAddedDate(System.currentTimeMillis());
+        return result;
+    }
 
-        return deviceRepository.save(device);
+    // The index picks the page, the rows come from DeviceReadModel so search answers in the same shape as the listing
+    public CursorPage<DeviceView> searchDevices(String query, DeviceStatus status, Long cursor, int size) {
+        CursorPage<Long> ids = searchIndex.search(query, status, cursor, size);
+        List<DeviceView> items = new ArrayList<>(ids.getItems().size());
+        for (Long id : ids.getItems()) {
+            readModel.getDevice(id)
+                    .filter(device -> status == null || device.getStatus() == status)
+                    .ifPresent(items::add);
+        }
+        return new CursorPage<>(items, ids.getNextCursor());
     }
 
-    public List<Device> getAllDevices() {
-        return deviceRepository.findAll();
+    // Grouped counts only, the size of the answer depends on the number of distinct values, not on rows
+    public InventorySummary getSummary() {
+        InventorySummary summary = new InventorySummary();
+
+        for (Object[] row : deviceRepository.countByStatus()) {
+            if (row[0] != null) {
+                summary.getDevicesByStatus().put((DeviceStatus) row[0], (Long) row[1]);
+            }
+        }
+        for (Object[] row : deviceRepository.countByType()) {
+            summary.getDevicesByType().put(row[0] == null ? "" : (String) row[0], (Long) row[1]);
+        }
+        for (Object[] row : deviceRepository.countByLocation()) {
+            summary.getDevicesByLocation().put(row[0] == null ? "" : (String) row[0], (Long) row[1]);
+        }
+        for (Object[] row : loanRepository.countByReturned()) {
+            if (Boolean.TRUE.equals(row[0])) {
+                summary.setReturnedLoans((Long) row[1]);
+            } else {
+                summary.setActiveLoans((Long) row[1]);
+            }
+        }
+        // Everything in the archive was returned, LoanArchiver never moves active loans
+        summary.setArchivedLoans(archivedLoanRepository.count());
+        summary.setReturnedLoans(summary.getReturnedLoans() + summary.getArchivedLoans());
+
+        return summary;
     }
 
     public Optional<Device> getDeviceById(Long id) {
         return deviceRepository.findById(id);
     }
 
+    // The save writes every column, so a loan registered or returned in between would be undone.
+    // The version check fails the commit instead and the change is applied again on a fresh read.
     public Device updateDeviceStatus(Long id, DeviceStatus newStatus) {
-        Device device = deviceRepository.findById(id).orElseThrow(() ->
-                new IllegalArgumentException("Device not found"));
+        return optimisticRetry.run(() -> {
+            Device device = deviceRepository.findCurrent(id).orElseThrow(() ->
+                    new IllegalArgumentException("Device not found"));
 
-        device.setStatus(newStatus);
+            device.setStatus(newStatus);
 
-        return deviceRepository.save(device);
+            Device saved = deviceRepository.save(device);
+            eventPublisher.publishEvent(new DeviceChangedEvent(DeviceChangedEvent.Type.UPDATED, saved.getId(), saved));
+            return saved;
+        });
     }
 
     public void deleteDevice(Long id) {
@@ -52,5 +164,39 @@ public class DeviceService {
         }
 
         deviceRepository.deleteById(id);
+        eventPublisher.publishEvent(new DeviceChangedEvent(DeviceChangedEvent.Type.DELETED, id, null));
+    }
+
+    private void prepareNewDevice(Device device) {
+        if (device.getName() == null || device.getName().length() < 3) {
+            throw new IllegalArgumentException("Device name must be at least 3 characters long");
+        }
+
+        // Always insert, never merge over an existing row
+        device.setId(null);
+        device.setStatus(DeviceStatus.AVAILABLE);
+        device.setAddedDate(System.currentTimeMillis());
+        device.setActiveLoanId(null);
+    }
+
+    // Each batch is its own transaction, so a failing batch doesn't undo the ones already stored
+    private void saveImportBatch(List<Device> batch, List<Integer> batchRows, DeviceImportResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (Device saved : deviceRepository.saveAll(batch)) {
+                eventPublisher.publishEvent(new DeviceChangedEvent(DeviceChangedEvent.Type.REGISTERED, saved.getId(), saved));
+            }
+            result.setImported(result.getImported() + batch.size());
+        } catch (DataAccessException e) {
+            for (Integer row : batchRows) {
+                result.getErrors().add(new DeviceImportResult.RowError(row, "Batch insert failed"));
+            }
+        }
+
+        batch.clear();
+        batchRows.clear();
     }
 }
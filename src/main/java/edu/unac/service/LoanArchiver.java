@@ -0,0 +1,112 @@
+package edu.unac.service;
+
+import edu.unac.domain.LoansArchivedEvent;
+import edu.unac.repository.ArchivedLoanRepository;
+import edu.unac.repository.LoanRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves loans returned longer than {@code inventory.archive.max-age} ago from the loan table
+ * into loan_archive. This keeps the hot table, and every query on it, sized by recent activity.
+ *
+ * <p>Each chunk is copied and deleted in its own transaction, so a loan is always in exactly
+ * one of the two tables. Active loans are never touched.
+ */
+@Component
+// Schedules itself, nothing else would create it under lazy initialization
+@Lazy(false)
+public class LoanArchiver {
+    private static final Logger log = LoggerFactory.getLogger(LoanArchiver.class);
+
+    private final LoanRepository loanRepository;
+    private final ArchivedLoanRepository archivedLoanRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transaction;
+    private final Duration maxAge;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("loan-archiver").factory());
+
+    public LoanArchiver(LoanRepository loanRepository,
+                        ArchivedLoanRepository archivedLoanRepository,
+                        ApplicationEventPublisher eventPublisher,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${inventory.archive.enabled:true}") boolean enabled,
+                        @Value("${inventory.archive.max-age:365d}") Duration maxAge,
+                        @Value("${inventory.archive.interval:1h}") Duration interval,
+                        @Value("${inventory.archive.batch-size:1000}") int batchSize) {
+        this.loanRepository = loanRepository;
+        this.archivedLoanRepository = archivedLoanRepository;
+        this.eventPublisher = eventPublisher;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.maxAge = maxAge;
+        this.batchSize = batchSize;
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::archiveSafely, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Archives everything currently past the age limit, returns the number of loans moved. */
+    public int archiveReturnedLoans() {
+        long cutoff = System.currentTimeMillis() - maxAge.toMillis();
+        int moved = 0;
+        int chunk;
+        do {
+            chunk = transaction.execute(status -> archiveChunk(cutoff));
+            moved += chunk;
+        } while (chunk == batchSize);
+        return moved;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private int archiveChunk(long cutoff) {
+        List<Object[]> rows = loanRepository.findArchivable(cutoff, PageRequest.of(0, batchSize));
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> loanIds = new ArrayList<>(rows.size());
+        Set<Long> deviceIds = new HashSet<>();
+        for (Object[] row : rows) {
+            loanIds.add((Long) row[0]);
+            if (row[1] != null) {
+                deviceIds.add((Long) row[1]);
+            }
+        }
+
+        archivedLoanRepository.copyFromLoans(loanIds, System.currentTimeMillis());
+        loanRepository.deleteAllByIdInBatch(loanIds);
+
+        eventPublisher.publishEvent(new LoansArchivedEvent(loanIds, deviceIds));
+        return rows.size();
+    }
+
+    // A failed run is retried on the next tick, it must not cancel the schedule
+    private void archiveSafely() {
+        try {
+            archiveReturnedLoans();
+        } catch (RuntimeException e) {
+            // Nothing of the failed chunk was committed, its rows are still in the hot table
+            log.warn("Archiving returned loans failed, retrying on the next run", e);
+        }
+    }
+}
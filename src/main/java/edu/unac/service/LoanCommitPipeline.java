@@ -0,0 +1,338 @@
+package edu.unac.service;
+
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.Loan;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.repository.ArchivedLoanRepository;
+import edu.unac.repository.DeviceRepository;
+import edu.unac.repository.LoanRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for loan registrations and single returns. With
+ * {@code inventory.loans.group-commit.enabled} the calls are queued, and one committer thread
+ * applies whatever arrived within {@code window} of the first, up to {@code max-batch}, in a
+ * single transaction. Disabled, both calls go straight to {@link LoanService}.
+ *
+ * <p>A batch locks the loans it returns, then every device it touches, and decides each write
+ * in arrival order against those rows. The rules and error messages are the ones of
+ * {@link LoanService#registerLoan} and {@link LoanService#markAsReturned}: a write that is
+ * refused leaves nothing behind and the rest of the batch still commits. Callers wait for the
+ * commit and get their own loan or exception. Should the batch fail as a whole, every write in
+ * it is run again through LoanService in a transaction of its own.
+ *
+ * <p>Writes committed in a batch never pass through LoanService's {@code @Counted} and
+ * {@code @Timed} aspects, so the pipeline records the same meters for them, with the tags the
+ * aspects use. The timer covers the caller's whole wait, queueing included.
+ */
+@Component
+public class LoanCommitPipeline {
+    private static final Logger log = LoggerFactory.getLogger(LoanCommitPipeline.class);
+
+    private final LoanService loanService;
+    private final LoanRepository loanRepository;
+    private final ArchivedLoanRepository archivedLoanRepository;
+    private final DeviceRepository deviceRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transaction;
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Write> queue;
+    private final DistributionSummary batchSizes;
+    private final Counter fallbacks;
+    private final Thread committer;
+    private volatile boolean running;
+
+    public LoanCommitPipeline(LoanService loanService,
+                              LoanRepository loanRepository,
+                              ArchivedLoanRepository archivedLoanRepository,
+                              DeviceRepository deviceRepository,
+                              ApplicationEventPublisher eventPublisher,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry registry,
+                              @Value("${inventory.loans.group-commit.enabled:false}") boolean enabled,
+                              @Value("${inventory.loans.group-commit.window:2ms}") Duration window,
+                              @Value("${inventory.loans.group-commit.max-batch:256}") int maxBatch) {
+        this.loanService = loanService;
+        this.loanRepository = loanRepository;
+        this.archivedLoanRepository = archivedLoanRepository;
+        this.deviceRepository = deviceRepository;
+        this.eventPublisher = eventPublisher;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.registry = registry;
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.maxBatch = maxBatch;
+        // Room for a few batches, past that a caller commits on its own instead of waiting
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, maxBatch) * 4);
+        this.batchSizes = DistributionSummary.builder("inventory.loans.group_commit.batch_size").register(registry);
+        this.fallbacks = Counter.builder("inventory.loans.group_commit.fallbacks").register(registry);
+        this.running = enabled;
+        this.committer = enabled ? Thread.ofPlatform().daemon().name("loan-group-commit").start(this::run) : null;
+    }
+
+    public Loan registerLoan(Loan loan) {
+        return registerLoan(loan, () -> { });
+    }
+
+    public Loan markAsReturned(Long loanId) {
+        return markAsReturned(loanId, () -> { });
+    }
+
+    /** onQueued runs once the write is queued, the caller then waits without holding a connection. */
+    public Loan registerLoan(Loan loan, Runnable onQueued) {
+        return enabled ? submit(new Write(loan, null), onQueued) : loanService.registerLoan(loan);
+    }
+
+    public Loan markAsReturned(Long loanId, Runnable onQueued) {
+        return enabled ? submit(new Write(null, loanId), onQueued) : loanService.markAsReturned(loanId);
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        if (committer == null) {
+            return;
+        }
+        running = false;
+        committer.join(TimeUnit.SECONDS.toMillis(10));
+        // Anything that slipped in after the last batch
+        for (Write write; (write = queue.poll()) != null; ) {
+            write.commitAlone();
+        }
+    }
+
+    private Loan submit(Write write, Runnable onQueued) {
+        if (!running || !queue.offer(write)) {
+            return write.runAlone();
+        }
+        onQueued.run();
+        try {
+            return write.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Write next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Write> batch) {
+        batchSizes.record(batch.size());
+        try {
+            transaction.executeWithoutResult(status -> apply(batch));
+        } catch (RuntimeException e) {
+            // Nothing of the batch is in the database, each write gets a transaction of its own
+            fallbacks.increment();
+            log.warn("Group commit of {} loan writes failed, committing them one by one", batch.size(), e);
+            batch.forEach(Write::commitAlone);
+            return;
+        }
+        batch.forEach(Write::complete);
+    }
+
+    // What CountedAspect and TimedAspect record around LoanService, same names and tag keys
+    private void record(Write write) {
+        String method = write.loan != null ? "registerLoan" : "markAsReturned";
+        String exception = write.refused == null ? "none" : write.refused.getClass().getSimpleName();
+        Counter.builder(write.loan != null ? "inventory.loans.register" : "inventory.loans.return")
+                .tags("class", LoanService.class.getName(), "method", method,
+                        "result", write.refused == null ? "success" : "failure", "exception", exception)
+                .register(registry)
+                .increment();
+        Timer.builder("inventory.service")
+                .tags("class", LoanService.class.getName(), "method", method, "exception", exception)
+                .register(registry)
+                .record(System.nanoTime() - write.submittedAt, TimeUnit.NANOSECONDS);
+    }
+
+    private void apply(List<Write> batch) {
+        long now = System.currentTimeMillis();
+
+        // Loans first, then devices, the order markAsReturned and returnLoans lock them in
+        Set<Long> returning = new HashSet<>();
+        for (Write write : batch) {
+            if (write.loan == null && write.loanId != null) {
+                returning.add(write.loanId);
+            }
+        }
+        Map<Long, Loan> active = new HashMap<>();
+        if (!returning.isEmpty()) {
+            loanRepository.lockActiveByIds(returning).forEach(loan -> active.put(loan.getId(), loan));
+        }
+        Set<Long> inactive = new HashSet<>(returning);
+        inactive.removeAll(active.keySet());
+        Set<Long> known = new HashSet<>();
+        if (!inactive.isEmpty()) {
+            known.addAll(loanRepository.findExistingIds(inactive));
+            known.addAll(archivedLoanRepository.findExistingIds(inactive));
+        }
+
+        Set<Long> deviceIds = new HashSet<>();
+        for (Write write : batch) {
+            if (write.loan != null && write.loan.getDeviceId() != null) {
+                deviceIds.add(write.loan.getDeviceId());
+            }
+        }
+        active.values().forEach(loan -> {
+            if (loan.getDeviceId() != null) {
+                deviceIds.add(loan.getDeviceId());
+            }
+        });
+        Map<Long, Device> devices = new HashMap<>();
+        if (!deviceIds.isEmpty()) {
+            deviceRepository.lockByIds(deviceIds).forEach(device -> devices.put(device.getId(), device));
+        }
+
+        // The rows are managed, the changed ones are flushed at commit
+        for (Write write : batch) {
+            try {
+                write.applied = write.loan != null
+                        ? register(write.loan, devices, now)
+                        : returnLoan(write.loanId, active, known, devices, now);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                write.refused = e;
+            }
+        }
+    }
+
+    // LoanService.registerLoan on a locked row, the caller's object is left as it was
+    private Loan register(Loan request, Map<Long, Device> devices, long now) {
+        Long deviceId = request.getDeviceId();
+        if (deviceId == null) {
+            throw new IllegalArgumentException("Device not found");
+        }
+        if (request.getDueDate() != null && request.getDueDate() <= now) {
+            throw new IllegalArgumentException("Due date must be in the future");
+        }
+        Device device = devices.get(deviceId);
+        if (device == null) {
+            throw new IllegalArgumentException("Device not found");
+        }
+        if (device.getStatus() != DeviceStatus.AVAILABLE) {
+            throw new IllegalStateException("Device is not available for loan");
+        }
+
+        Loan saved = loanRepository.save(new Loan(null, deviceId, request.getBorrowedBy(), now,
+                request.getEndDate(), false, request.getDueDate()));
+        device.setStatus(DeviceStatus.LOANED);
+        device.setActiveLoanId(saved.getId());
+        eventPublisher.publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, saved));
+        return saved;
+    }
+
+    // LoanService.markAsReturned, a device in another status than LOANED keeps it
+    private Loan returnLoan(Long loanId, Map<Long, Loan> active, Set<Long> known, Map<Long, Device> devices, long now) {
+        Loan loan = loanId == null ? null : active.get(loanId);
+        if (loan == null) {
+            if (known.contains(loanId)) {
+                throw new IllegalStateException("Loan is already marked as returned");
+            }
+            throw new IllegalArgumentException("Loan not found");
+        }
+        Device device = loan.getDeviceId() == null ? null : devices.get(loan.getDeviceId());
+        if (device == null) {
+            throw new IllegalArgumentException("Device not found");
+        }
+
+        active.remove(loanId);
+        known.add(loanId);
+        loan.setReturned(true);
+        loan.setEndDate(now);
+        if (device.getActiveLoanId() == null || device.getActiveLoanId().equals(loanId)) {
+            device.setActiveLoanId(null);
+            if (device.getStatus() == DeviceStatus.LOANED) {
+                device.setStatus(DeviceStatus.AVAILABLE);
+            }
+        }
+        eventPublisher.publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, loan));
+        return loan;
+    }
+
+    // A registration carries the loan, a return only the loan id
+    private final class Write {
+        private final Loan loan;
+        private final Long loanId;
+        private final CompletableFuture<Loan> result = new CompletableFuture<>();
+        private final long submittedAt = System.nanoTime();
+        private Loan applied;
+        private RuntimeException refused;
+
+        private Write(Loan loan, Long loanId) {
+            this.loan = loan;
+            this.loanId = loanId;
+        }
+
+        private Loan runAlone() {
+            return loan != null ? loanService.registerLoan(loan) : loanService.markAsReturned(loanId);
+        }
+
+        private void commitAlone() {
+            try {
+                result.complete(runAlone());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        // Writes run alone are measured by LoanService's aspects, only batched ones end here
+        private void complete() {
+            record(this);
+            if (refused != null) {
+                result.completeExceptionally(refused);
+            } else {
+                result.complete(applied);
+            }
+        }
+    }
+}
@@ -1,73 +1,281 @@
 package edu.unac.service;
 
+import edu.unac.domain.CursorPage;
 import edu.unac.domain.Device;
 import edu.unac.domain.DeviceStatus;
 import edu.unac.domain.Loan;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.domain.LoanReturnRequest;
+import edu.unac.domain.LoanReturnResult;
+import edu.unac.domain.LoanWithDevice;
+import edu.unac.repository.ArchivedLoanRepository;
 import edu.unac.repository.DeviceRepository;
 import edu.unac.repository.LoanRepository;
+import io.micrometer.core.annotation.Counted;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
+@Timed("inventory.service")
 public class LoanService {
     @Autowired
     private LoanRepository loanRepository;
     @Autowired
     private DeviceRepository deviceRepository;
+    @Autowired
+    private ArchivedLoanRepository archivedLoanRepository;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
-    public LoanService(LoanRepository loanRepository, DeviceRepository deviceRepository) {
+    public LoanService(LoanRepository loanRepository, DeviceRepository deviceRepository,
+                       ArchivedLoanRepository archivedLoanRepository, ApplicationEventPublisher eventPublisher) {
         this.loanRepository = loanRepository;
         this.deviceRepository = deviceRepository;
+        this.archivedLoanRepository = archivedLoanRepository;
+        this.eventPublisher = eventPublisher;
     }
 
+    // Rejections are tagged with the exception, IllegalStateException meaning the device was taken
+    @Counted("inventory.loans.register")
+    @Transactional
     public Loan registerLoan(Loan loan) {
-        Device device = deviceRepository.findById(loan.getDeviceId()).orElseThrow(() ->
-                new IllegalArgumentException("Device not found"));
+        Long deviceId = loan.getDeviceId();
+        if (deviceId == null) {
+            throw new IllegalArgumentException("Device not found");
+        }
+        long now = System.currentTimeMillis();
+        if (loan.getDueDate() != null && loan.getDueDate() <= now) {
+            throw new IllegalArgumentException("Due date must be in the future");
+        }
 
-        if (device.getStatus() != DeviceStatus.AVAILABLE) {
+        // The conditional update holds the device row lock until commit, so only one caller can win it
+        if (deviceRepository.compareAndSetStatus(deviceId, DeviceStatus.AVAILABLE, DeviceStatus.LOANED) == 0) {
+            if (!deviceRepository.existsById(deviceId)) {
+                throw new IllegalArgumentException("Device not found");
+            }
             throw new IllegalStateException("Device is not available for loan");
         }
 
-        loan.setStartDate(System.currentTimeMillis());
+        loan.setStartDate(now);
         loan.setReturned(false);
 
-        device.setStatus(DeviceStatus.LOANED);
-        deviceRepository.save(device);
+        Loan saved = loanRepository.save(loan);
+        deviceRepository.setActiveLoanId(deviceId, saved.getId());
 
-        return loanRepository.save(loan);
+        // Listeners run after commit, a rolled back loan is never announced
+        eventPublisher.publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, saved));
+        return saved;
     }
 
     public List<Loan> getAllLoans() {
         return loanRepository.findAll();
     }
 
+    public CursorPage<Loan> getLoanPage(Long cursor, int size, Boolean returned, Long deviceId) {
+        // One extra row tells us whether another page exists without a count query
+        List<Loan> rows = loanRepository.findPage(cursor == null ? 0L : cursor, returned, deviceId,
+                PageRequest.of(0, size + 1));
+
+        if (rows.size() <= size) {
+            return new CursorPage<>(rows, null);
+        }
+
+        List<Loan> items = rows.subList(0, size);
+        return new CursorPage<>(items, items.get(size - 1).getId());
+    }
+
+    // Same paging as getLoanPage, one statement for the whole page
+    public CursorPage<LoanWithDevice> getLoanPageWithDevice(Long cursor, int size, Boolean returned, Long deviceId) {
+        List<LoanWithDevice> rows = loanRepository.findPageWithDevice(cursor == null ? 0L : cursor, returned, deviceId,
+                PageRequest.of(0, size + 1));
+
+        if (rows.size() <= size) {
+            return new CursorPage<>(rows, null);
+        }
+
+        List<LoanWithDevice> items = rows.subList(0, size);
+        return new CursorPage<>(items, items.get(size - 1).getId());
+    }
+
+    // The cursor stays open for the whole call, rows are handed to the sink as they are read
+    @Transactional(readOnly = true)
+    public void exportLoans(long from, long to, Long deviceId, boolean includeArchived, Consumer<Loan> sink) {
+        try (Stream<Loan> loans = loanRepository.streamForExport(from, to, deviceId)) {
+            if (!includeArchived) {
+                loans.forEach(sink);
+                return;
+            }
+            try (Stream<Loan> archived = archivedLoanRepository.streamForExport(from, to, deviceId)) {
+                mergeById(loans.iterator(), archived.iterator(), sink);
+            }
+        }
+    }
+
+    // Archived loans keep their id, so a loan is found wherever it currently lives
     public Optional<Loan> getLoanById(Long id) {
-        return loanRepository.findById(id);
+        return loanRepository.findById(id)
+                .or(() -> archivedLoanRepository.findLoanById(id));
     }
 
+    @Counted("inventory.loans.return")
+    @Transactional
     public Loan markAsReturned(Long loanId) {
+        int updated = loanRepository.markReturnedIfActive(loanId, System.currentTimeMillis());
+
         Loan loan = loanRepository.findById(loanId).orElseThrow(() ->
-                new IllegalArgumentException("Loan not found"));
+                archivedLoanRepository.existsById(loanId)
+                        ? new IllegalStateException("Loan is already marked as returned")
+                        : new IllegalArgumentException("Loan not found"));
 
-        if (loan.isReturned()) {
+        if (updated == 0) {
             throw new IllegalStateException("Loan is already marked as returned");
         }
 
-        loan.setReturned(true);
-        loan.setEndDate(System.currentTimeMillis());
+        Long deviceId = loan.getDeviceId();
+        if (deviceId == null) {
+            throw new IllegalArgumentException("Device not found");
+        }
 
-        Device device = deviceRepository.findById(loan.getDeviceId()).orElseThrow(() ->
-                new IllegalArgumentException("Device not found"));
-        device.setStatus(DeviceStatus.AVAILABLE);
-        deviceRepository.save(device);
+        // A device moved to another status while out (e.g. MAINTENANCE) keeps that status
+        if (deviceRepository.releaseLoan(deviceId, loanId) == 0 && !deviceRepository.existsById(deviceId)) {
+            throw new IllegalArgumentException("Device not found");
+        }
 
-        return loanRepository.save(loan);
+        eventPublisher.publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, loan));
+        return loan;
     }
 
-    public List<Loan> getLoansByDeviceId(Long deviceId) {
-        return loanRepository.findByDeviceId(deviceId);
+    // Set-based markAsReturned: a fixed number of statements however many loans are returned
+    @Counted("inventory.loans.return.batch")
+    @Transactional
+    public LoanReturnResult returnLoans(LoanReturnRequest request) {
+        boolean byIds = request.getLoanIds() != null && !request.getLoanIds().isEmpty();
+        boolean byBorrower = request.getBorrowedBy() != null && !request.getBorrowedBy().isBlank();
+        if (byIds == byBorrower) {
+            throw new IllegalArgumentException("Provide either loan ids or a borrower");
+        }
+        if (byIds && request.getLoanIds().stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("Loan ids must not be null");
+        }
+
+        // Keeps the caller's order, each id is reported once
+        Map<Long, LoanReturnResult.Status> statuses = new LinkedHashMap<>();
+        if (byIds) {
+            request.getLoanIds().forEach(id -> statuses.put(id, null));
+        }
+
+        List<Loan> active = byIds
+                ? loanRepository.lockActiveByIds(statuses.keySet())
+                : loanRepository.lockActiveByBorrower(request.getBorrowedBy());
+
+        // As in markAsReturned, a loan whose device is gone stays active
+        Set<Long> deviceIds = new HashSet<>();
+        for (Loan loan : active) {
+            if (loan.getDeviceId() != null) {
+                deviceIds.add(loan.getDeviceId());
+            }
+        }
+        Set<Long> existingDevices = deviceIds.isEmpty() ? Set.of() : new HashSet<>(deviceRepository.findExistingIds(deviceIds));
+
+        List<Loan> returning = new ArrayList<>();
+        for (Loan loan : active) {
+            if (existingDevices.contains(loan.getDeviceId())) {
+                returning.add(loan);
+                statuses.put(loan.getId(), LoanReturnResult.Status.RETURNED);
+            } else {
+                statuses.put(loan.getId(), LoanReturnResult.Status.DEVICE_NOT_FOUND);
+            }
+        }
+
+        List<Long> unresolved = new ArrayList<>();
+        statuses.forEach((id, status) -> {
+            if (status == null) {
+                unresolved.add(id);
+            }
+        });
+        if (!unresolved.isEmpty()) {
+            Set<Long> existing = new HashSet<>(loanRepository.findExistingIds(unresolved));
+            existing.addAll(archivedLoanRepository.findExistingIds(unresolved));
+            for (Long id : unresolved) {
+                statuses.put(id, existing.contains(id) ? LoanReturnResult.Status.ALREADY_RETURNED : LoanReturnResult.Status.NOT_FOUND);
+            }
+        }
+
+        if (!returning.isEmpty()) {
+            long now = System.currentTimeMillis();
+            List<Long> loanIds = returning.stream().map(Loan::getId).toList();
+            Set<Long> releasedDevices = new HashSet<>();
+            returning.forEach(loan -> releasedDevices.add(loan.getDeviceId()));
+
+            loanRepository.markReturned(loanIds, now);
+            deviceRepository.releaseLoans(releasedDevices, loanIds);
+
+            for (Loan loan : returning) {
+                loan.setReturned(true);
+                loan.setEndDate(now);
+                eventPublisher.publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, loan));
+            }
+        }
+
+        LoanReturnResult result = new LoanReturnResult();
+        result.setReturned(returning.size());
+        statuses.forEach((id, status) -> result.getResults().add(new LoanReturnResult.Outcome(id, status)));
+        return result;
+    }
+
+    public List<Loan> getLoansByDeviceId(Long deviceId, boolean includeArchived) {
+        List<Loan> loans = loanRepository.findByDeviceId(deviceId);
+        if (!includeArchived) {
+            return loans;
+        }
+
+        List<Loan> history = new ArrayList<>(archivedLoanRepository.findLoansByDeviceId(deviceId));
+        history.addAll(loans);
+        history.sort(Comparator.comparing(Loan::getId));
+        return history;
+    }
+
+    public List<LoanWithDevice> getLoansWithDeviceByDeviceId(Long deviceId, boolean includeArchived) {
+        List<LoanWithDevice> loans = loanRepository.findWithDeviceByDeviceId(deviceId);
+        if (!includeArchived) {
+            return loans;
+        }
+
+        List<LoanWithDevice> history = new ArrayList<>(archivedLoanRepository.findWithDeviceByDeviceId(deviceId));
+        history.addAll(loans);
+        history.sort(Comparator.comparing(LoanWithDevice::getId));
+        return history;
+    }
+
+    // Two primary-key reads instead of scanning the device's loan history. The pointer and the
+    // loan are read one after the other, a return committing in between must not show up as active.
+    public Optional<Loan> getActiveLoan(Long deviceId) {
+        return deviceRepository.findCurrent(deviceId)
+                .map(Device::getActiveLoanId)
+                .flatMap(loanRepository::findById)
+                .filter(loan -> !loan.isReturned());
+    }
+
+    // Both sides are ordered by id, the output is too
+    private static void mergeById(Iterator<Loan> hot, Iterator<Loan> archived, Consumer<Loan> sink) {
+        Loan nextHot = hot.hasNext() ? hot.next() : null;
+        Loan nextArchived = archived.hasNext() ? archived.next() : null;
+        while (nextHot != null || nextArchived != null) {
+            if (nextArchived == null || (nextHot != null && nextHot.getId() < nextArchived.getId())) {
+                sink.accept(nextHot);
+                nextHot = hot.hasNext() ? hot.next() : null;
+            } else {
+                sink.accept(nextArchived);
+                nextArchived = archived.hasNext() ? archived.next() : null;
+            }
+        }
     }
 }
@@ -0,0 +1,74 @@
+package edu.unac.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Runs a read-modify-write in its own transaction and starts it over when the version check
+ * fails at commit. Attempts are spaced by exponential backoff with full jitter, so writers that
+ * collided once don't collide again in lockstep. When the attempts run out the last
+ * {@link OptimisticLockingFailureException} is rethrown, the controllers answer it with 409.
+ */
+@Component
+public class OptimisticRetry {
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Counter conflicts;
+    private final Counter exhausted;
+
+    public OptimisticRetry(PlatformTransactionManager transactionManager,
+                           @Value("${inventory.optimistic.max-attempts:5}") int maxAttempts,
+                           @Value("${inventory.optimistic.initial-backoff:2ms}") Duration initialBackoff,
+                           @Value("${inventory.optimistic.max-backoff:50ms}") Duration maxBackoff,
+                           MeterRegistry registry) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("inventory.optimistic.max-attempts must be at least 1");
+        }
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.conflicts = Counter.builder("inventory.optimistic.conflicts").register(registry);
+        this.exhausted = Counter.builder("inventory.optimistic.exhausted").register(registry);
+    }
+
+    // Anything but a version conflict ends the call on the first attempt
+    public <T> T run(Supplier<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> work.get());
+            } catch (OptimisticLockingFailureException e) {
+                conflicts.increment();
+                if (attempt >= maxAttempts) {
+                    exhausted.increment();
+                    throw e;
+                }
+                backOff(attempt);
+            }
+        }
+    }
+
+    private void backOff(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 20));
+        if (ceiling <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(Duration.ofNanos(ThreadLocalRandom.current().nextLong(ceiling + 1)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying a conflicting update", e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package edu.unac.service;
+
+import edu.unac.domain.Loan;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.repository.LoanRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps every active loan with a due date in memory, ordered by due date.
+ *
+ * <p>The table is read once at startup through the (returned, due_date) index. After that,
+ * loan events keep the maps current and a single timer wakes at the next due date. When it
+ * fires, it moves the crossed loans to the overdue map and publishes an OVERDUE event for each.
+ * The overdue map is already sorted, so listing it costs only the size of the result.
+ *
+ * <p>Events of concurrent transactions can arrive out of order, a return may be seen before the
+ * registration of the same loan. Returns of loans not being tracked are remembered for a minute
+ * and a registration arriving in that time is ignored.
+ */
+@Component
+// Loans already past due must fire without waiting for the next loan change
+@Lazy(false)
+public class OverdueTracker {
+    private static final long RETURNED_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final LoanRepository loanRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Guarded by this
+    private final TreeMap<DueKey, Loan> upcoming = new TreeMap<>();
+    private final Map<Long, DueKey> keys = new HashMap<>();
+    // Loan id to System.nanoTime() of the return, oldest first
+    private final LinkedHashMap<Long, Long> returnedEarly = new LinkedHashMap<>();
+    private ScheduledFuture<?> nextCheck;
+    private long nextCheckAt = Long.MAX_VALUE;
+
+    private final ConcurrentSkipListMap<DueKey, Loan> overdue = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("overdue-tracker").factory());
+
+    public OverdueTracker(LoanRepository loanRepository, ApplicationEventPublisher eventPublisher) {
+        this.loanRepository = loanRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    void seed() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Loan loan : loanRepository.findActiveWithDueDate()) {
+                track(loan, now);
+            }
+            scheduleNextCheck(now);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLoanChanged(LoanChangedEvent event) {
+        Loan loan = event.getLoan();
+        switch (event.getType()) {
+            case REGISTERED -> {
+                long now = System.currentTimeMillis();
+                synchronized (this) {
+                    if (returnedEarly.remove(loan.getId()) == null) {
+                        track(loan, now);
+                        scheduleNextCheck(now);
+                    }
+                }
+            }
+            case RETURNED -> untrack(loan);
+            case OVERDUE -> {
+            }
+        }
+    }
+
+    // Most overdue first
+    public List<Loan> getOverdueLoans() {
+        return new ArrayList<>(overdue.values());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void track(Loan loan, long now) {
+        if (loan.getDueDate() == null || loan.isReturned()) {
+            return;
+        }
+        DueKey key = new DueKey(loan.getDueDate(), loan.getId());
+        keys.put(loan.getId(), key);
+        if (key.dueDate() <= now) {
+            overdue.put(key, loan);
+        } else {
+            upcoming.put(key, loan);
+        }
+    }
+
+    // A pending timer for a removed loan is left alone, it finds nothing due and re-arms
+    private synchronized void untrack(Loan loan) {
+        DueKey key = keys.remove(loan.getId());
+        if (key != null) {
+            upcoming.remove(key);
+            overdue.remove(key);
+        } else if (loan.getDueDate() != null) {
+            // Its registration has not been seen yet
+            long now = System.nanoTime();
+            returnedEarly.put(loan.getId(), now);
+            Iterator<Long> returnedAt = returnedEarly.values().iterator();
+            while (returnedAt.hasNext() && now - returnedAt.next() >= RETURNED_RETENTION_NANOS) {
+                returnedAt.remove();
+            }
+        }
+    }
+
+    private void scheduleNextCheck(long now) {
+        long due = upcoming.isEmpty() ? Long.MAX_VALUE : upcoming.firstKey().dueDate();
+        if (due >= nextCheckAt) {
+            return;
+        }
+        if (nextCheck != null) {
+            nextCheck.cancel(false);
+        }
+        nextCheckAt = due;
+        nextCheck = timer.schedule(this::flagCrossed, Math.max(0, due - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void flagCrossed() {
+        List<Loan> crossed = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            while (!upcoming.isEmpty() && upcoming.firstKey().dueDate() <= now) {
+                Map.Entry<DueKey, Loan> entry = upcoming.pollFirstEntry();
+                overdue.put(entry.getKey(), entry.getValue());
+                crossed.add(entry.getValue());
+            }
+            nextCheck = null;
+            nextCheckAt = Long.MAX_VALUE;
+            scheduleNextCheck(now);
+        }
+        // Outside the lock, listeners may call back into the services
+        for (Loan loan : crossed) {
+            eventPublisher.publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.OVERDUE, loan));
+        }
+    }
+
+    private record DueKey(long dueDate, long loanId) implements Comparable<DueKey> {
+        @Override
+        public int compareTo(DueKey other) {
+            int byDate = Long.compare(dueDate, other.dueDate);
+            return byDate != 0 ? byDate : Long.compare(loanId, other.loanId);
+        }
+    }
+}
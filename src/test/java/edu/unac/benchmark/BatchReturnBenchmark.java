@@ -0,0 +1,65 @@
+package edu.unac.benchmark;
+
+import edu.unac.domain.LoanReturnRequest;
+import edu.unac.domain.LoanReturnResult;
+import edu.unac.service.LoanService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Returning a whole term's loans: one markAsReturned per loan against the set-based
+ * returnLoans, by id list and by borrower. Every invocation starts from freshly lent devices.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchReturnBenchmark {
+    private static final String BORROWER = "Term End";
+
+    @Param({"10", "100", "1000"})
+    public int loans;
+
+    private BenchmarkContext context;
+    private LoanService loanService;
+    private List<Long> loanIds;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        context.seedDevices(loans);
+        loanService = context.bean(LoanService.class);
+    }
+
+    @Setup(Level.Invocation)
+    public void lend() {
+        loanIds = context.seedActiveLoans(loans, BORROWER);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void oneByOne(Blackhole blackhole) {
+        for (Long id : loanIds) {
+            blackhole.consume(loanService.markAsReturned(id));
+        }
+    }
+
+    @Benchmark
+    public LoanReturnResult batchByIds() {
+        return loanService.returnLoans(new LoanReturnRequest(loanIds, null));
+    }
+
+    @Benchmark
+    public LoanReturnResult batchByBorrower() {
+        return loanService.returnLoans(new LoanReturnRequest(null, BORROWER));
+    }
+}
@@ -0,0 +1,98 @@
+package edu.unac.benchmark;
+
+import edu.unac.InventoryManagementApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Boots the application against a private in-memory H2 database and seeds it with
+ * set-based inserts, so benchmarks with millions of rows start quickly.
+ */
+public final class BenchmarkContext implements AutoCloseable {
+    private static final long SEED_CHUNK = 1_000_000;
+
+    private final ConfigurableApplicationContext context;
+    private final JdbcTemplate jdbc;
+
+    private BenchmarkContext(ConfigurableApplicationContext context) {
+        this.context = context;
+        this.jdbc = context.getBean(JdbcTemplate.class);
+    }
+
+    public static BenchmarkContext start() {
+        return start(Map.of());
+    }
+
+    public static BenchmarkContext start(Map<String, Object> extraProperties) {
+        return start(WebApplicationType.NONE, extraProperties);
+    }
+
+    /** Starts with an embedded server on a random port when the type is SERVLET. */
+    public static BenchmarkContext start(WebApplicationType webApplicationType, Map<String, Object> extraProperties) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        properties.put("spring.h2.console.enabled", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.putAll(extraProperties);
+
+        SpringApplication application = new SpringApplication(InventoryManagementApplication.class);
+        application.setWebApplicationType(webApplicationType);
+        application.setDefaultProperties(properties);
+        return new BenchmarkContext(application.run());
+    }
+
+    public int port() {
+        return Integer.parseInt(context.getEnvironment().getRequiredProperty("local.server.port"));
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /** The context itself publishes events, it is not a bean of its own. */
+    public ApplicationEventPublisher events() {
+        return context;
+    }
+
+    /** Inserts devices with ids 1..count, all AVAILABLE, and moves the id sequence past them. */
+    public void seedDevices(long count) {
+        jdbc.update("INSERT INTO device (id, name, type, location, status, added_date)" +
+                " SELECT X, 'Device ' || X, 'Type ' || MOD(X, 20), 'Room ' || MOD(X, 50), 0, X FROM SYSTEM_RANGE(1, ?)", count);
+        jdbc.execute("ALTER SEQUENCE device_seq RESTART WITH " + (count + 1000));
+    }
+
+    /**
+     * Inserts returned loans spread round-robin over devices 1..deviceCount. Each million rows
+     * commits on its own, a single huge transaction bloats a file-backed database.
+     */
+    public void seedReturnedLoans(long count, long deviceCount) {
+        for (long from = 1; from <= count; from += SEED_CHUNK) {
+            jdbc.update("INSERT INTO loan (device_id, borrowed_by, start_date, end_date, returned)" +
+                    " SELECT MOD(X, ?) + 1, 'Borrower ' || MOD(X, 1000), X, X + 1, TRUE FROM SYSTEM_RANGE(?, ?)",
+                    deviceCount, from, Math.min(count, from + SEED_CHUNK - 1));
+        }
+    }
+
+    /** Lends devices 1..count to one borrower the way registerLoan would, returns the loan ids. */
+    public List<Long> seedActiveLoans(long count, String borrowedBy) {
+        jdbc.update("INSERT INTO loan (device_id, borrowed_by, start_date, end_date, returned)" +
+                " SELECT X, ?, X, 0, FALSE FROM SYSTEM_RANGE(1, ?)", borrowedBy, count);
+        jdbc.update("UPDATE device d SET status = 1, active_loan_id =" +
+                " (SELECT MAX(l.id) FROM loan l WHERE l.device_id = d.id AND l.returned = FALSE) WHERE d.id <= ?", count);
+        return jdbc.queryForList("SELECT id FROM loan WHERE returned = FALSE ORDER BY id", Long.class);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,76 @@
+package edu.unac.benchmark;
+
+import edu.unac.domain.Device;
+import edu.unac.domain.Loan;
+import edu.unac.service.DeviceService;
+import edu.unac.service.LoanService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeviceService writes against a loan table that already holds a large returned history,
+ * which is what the active-loan check in deleteDevice has to look past.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceServiceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public long loanHistory;
+
+    private BenchmarkContext context;
+    private DeviceService deviceService;
+    private long loanedDeviceId;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        context.seedDevices(1000);
+        context.seedReturnedLoans(loanHistory, 1000);
+        deviceService = context.bean(DeviceService.class);
+
+        Loan active = new Loan();
+        active.setDeviceId(1L);
+        active.setBorrowedBy("Benchmark");
+        loanedDeviceId = context.bean(LoanService.class).registerLoan(active).getDeviceId();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Device registerDevice() {
+        return deviceService.registerDevice(newDevice());
+    }
+
+    @Benchmark
+    public void registerThenDeleteDevice() {
+        Device device = deviceService.registerDevice(newDevice());
+        deviceService.deleteDevice(device.getId());
+    }
+
+    @Benchmark
+    public void deleteDeviceWithActiveLoan(Blackhole blackhole) {
+        try {
+            deviceService.deleteDevice(loanedDeviceId);
+        } catch (IllegalStateException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    private static Device newDevice() {
+        Device device = new Device();
+        device.setName("Benchmark device");
+        device.setType("Benchmark");
+        device.setLocation("Lab");
+        return device;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.unac.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching the JVM until GET /api/devices first answers 200, for the artifact the
+ * fast-startup profile leaves in target/fast-startup:
+ * <ul>
+ *     <li>jar: the extracted jar started as it is</li>
+ *     <li>lazy: with the fast-startup profile, beans created on first use</li>
+ *     <li>aot: lazy plus the bean definitions generated at build time</li>
+ *     <li>aot+cds: aot plus the class data archive of the training run</li>
+ * </ul>
+ * Every case starts a fresh process. The modes take turns, so a slower machine phase hits all
+ * of them alike, and one start of each is thrown away to warm the file cache.
+ *
+ * <p>Build and run with {@code mvn -Pfast-startup,load-test verify
+ * -Dload.harness=edu.unac.benchmark.FastStartupHarness}, repeat with -Druns passed through
+ * {@code -Dload.jvmArgs}. The archive only maps into the JVM that wrote it, so this has to run
+ * on the same java as the build.
+ */
+public final class FastStartupHarness {
+    private static final int RUNS = Integer.getInteger("runs", 10);
+    private static final Path APP = Path.of(System.getProperty("app.dir", "target/fast-startup"));
+    private static final String JAR = System.getProperty("app.jar", "InventoryManagementApplication-1.0-SNAPSHOT.jar");
+    private static final String CHILD_JVM_ARGS = System.getProperty("child.jvmArgs", "-Xmx1g");
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+    private static final Map<String, List<String>> MODES = new LinkedHashMap<>();
+
+    static {
+        List<String> lazy = List.of("-Dspring.profiles.active=fast-startup");
+        List<String> aot = concat(lazy, List.of("-Dspring.aot.enabled=true"));
+        MODES.put("jar", List.of());
+        MODES.put("lazy", lazy);
+        MODES.put("aot", aot);
+        MODES.put("aot+cds", concat(aot, List.of("-XX:SharedArchiveFile=application.jsa", "-Xlog:cds=off")));
+    }
+
+    private FastStartupHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (!Files.exists(APP.resolve(JAR)) || !Files.exists(APP.resolve("application.jsa"))) {
+            throw new IllegalStateException(APP.toAbsolutePath() + " has no application, build it with -Pfast-startup");
+        }
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        Map<String, List<Long>> times = new LinkedHashMap<>();
+        MODES.keySet().forEach(mode -> times.put(mode, new ArrayList<>()));
+
+        for (String mode : MODES.keySet()) {
+            firstRequestMillis(client, mode);
+        }
+        for (int run = 0; run < RUNS; run++) {
+            for (String mode : MODES.keySet()) {
+                times.get(mode).add(firstRequestMillis(client, mode));
+            }
+        }
+
+        System.out.printf("%d runs each, time to first successful request%n", RUNS);
+        System.out.printf("%-10s %10s %10s %10s%n", "mode", "min ms", "median ms", "max ms");
+        StringBuilder json = new StringBuilder("[");
+        for (Map.Entry<String, List<Long>> entry : times.entrySet()) {
+            List<Long> sorted = entry.getValue().stream().sorted().toList();
+            long min = sorted.get(0);
+            long median = sorted.get(sorted.size() / 2);
+            long max = sorted.get(sorted.size() - 1);
+            System.out.printf("%-10s %10d %10d %10d%n", entry.getKey(), min, median, max);
+            json.append(json.length() > 1 ? "," : "")
+                    .append(String.format(Locale.ROOT, "{\"mode\":\"%s\",\"runs\":%d,\"minMs\":%d,\"medianMs\":%d,\"maxMs\":%d}",
+                            entry.getKey(), sorted.size(), min, median, max));
+        }
+        Path output = Path.of("target", "fast-startup-results.json");
+        Files.createDirectories(output.getParent());
+        Files.writeString(output, json.append("]").toString());
+    }
+
+    private static long firstRequestMillis(HttpClient client, String mode) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(CHILD_JVM_ARGS.trim().split("\\s+")));
+        command.addAll(MODES.get(mode));
+        command.add("-Dserver.port=" + port);
+        command.add("-jar");
+        command.add(JAR);
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/devices"))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+        Path log = APP.resolve("startup-" + mode.replace('+', '-') + ".log");
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(APP.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        try {
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(mode + " exited with " + process.exitValue() + ", see " + log);
+                }
+                if (System.nanoTime() - start > TIMEOUT.toNanos()) {
+                    throw new IllegalStateException(mode + " did not answer within " + TIMEOUT + ", see " + log);
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return (System.nanoTime() - start) / 1_000_000;
+                    }
+                } catch (IOException notListeningYet) {
+                    // Connection refused until the server is up
+                }
+                Thread.sleep(5);
+            }
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> all = new ArrayList<>(first);
+        all.addAll(second);
+        return all;
+    }
+}
@@ -0,0 +1,85 @@
+package edu.unac.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.unac.controller.DeviceController;
+import edu.unac.controller.LoanController;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.service.DeviceReadModel;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First and deep pages of the list endpoints, including JSON serialisation, at growing
+ * table sizes. The device pages come from the in-memory DeviceReadModel, the loan pages
+ * from the keyset query, so only the loan cases still say anything about the database.
+ * Neither should depend on the row count, except availableDevicesOfType, which skips
+ * every available device of another type before it fills a page.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListingBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public long rows;
+
+    private BenchmarkContext context;
+    private DeviceController deviceController;
+    private LoanController loanController;
+    private ObjectMapper objectMapper;
+    private long deepCursor;
+    // No If-None-Match, every call builds the full page
+    private WebRequest request;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        context.seedDevices(rows);
+        context.seedReturnedLoans(rows, rows);
+        // Seeded with plain JDBC, the read model has to be reloaded to see the rows
+        context.bean(DeviceReadModel.class).rebuild();
+        deviceController = context.bean(DeviceController.class);
+        loanController = context.bean(LoanController.class);
+        objectMapper = context.bean(ObjectMapper.class);
+        deepCursor = rows - 150;
+        request = new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse());
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] devicesFirstPage() throws Exception {
+        return objectMapper.writeValueAsBytes(deviceController.getAllDevices(null, 100, null, null, null, request).getBody());
+    }
+
+    @Benchmark
+    public byte[] devicesDeepPage() throws Exception {
+        return objectMapper.writeValueAsBytes(deviceController.getAllDevices(deepCursor, 100, null, null, null, request).getBody());
+    }
+
+    @Benchmark
+    public byte[] availableDevicesOfType() throws Exception {
+        return objectMapper.writeValueAsBytes(deviceController.getAllDevices(null, 100, DeviceStatus.AVAILABLE, "Type 7", null, request).getBody());
+    }
+
+    @Benchmark
+    public byte[] loansFirstPage() throws Exception {
+        return objectMapper.writeValueAsBytes(loanController.getAllLoans(null, 100, null, null, request).getBody());
+    }
+
+    @Benchmark
+    public byte[] loansOfDevice() throws Exception {
+        return objectMapper.writeValueAsBytes(loanController.getAllLoans(null, 100, true, 42L, request).getBody());
+    }
+}
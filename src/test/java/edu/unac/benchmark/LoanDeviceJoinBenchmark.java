@@ -0,0 +1,60 @@
+package edu.unac.benchmark;
+
+import edu.unac.domain.CursorPage;
+import edu.unac.domain.Device;
+import edu.unac.domain.Loan;
+import edu.unac.domain.LoanWithDevice;
+import edu.unac.repository.DeviceRepository;
+import edu.unac.service.LoanService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10k loans with their device names: one join against the loan page plus a device read per
+ * loan, which is what the frontend had to do before include=device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoanDeviceJoinBenchmark {
+    private static final int LOANS = 10_000;
+
+    private BenchmarkContext context;
+    private LoanService loanService;
+    private DeviceRepository deviceRepository;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        context.seedDevices(LOANS);
+        context.seedReturnedLoans(LOANS, LOANS);
+        loanService = context.bean(LoanService.class);
+        deviceRepository = context.bean(DeviceRepository.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<LoanWithDevice> joined() {
+        return loanService.getLoanPageWithDevice(null, LOANS, null, null).getItems();
+    }
+
+    @Benchmark
+    public List<String> lookupPerLoan() {
+        CursorPage<Loan> page = loanService.getLoanPage(null, LOANS, null, null);
+        List<String> names = new ArrayList<>(LOANS);
+        for (Loan loan : page.getItems()) {
+            names.add(deviceRepository.findById(loan.getDeviceId()).map(Device::getName).orElse(null));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,60 @@
+package edu.unac.benchmark;
+
+import edu.unac.domain.Loan;
+import edu.unac.service.LoanService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Register-then-return round trip through LoanService. Every benchmark thread owns its own
+ * device, so the numbers measure the write path rather than lock contention.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoanServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Inventory {
+        private static final int DEVICES = 1024;
+
+        BenchmarkContext context;
+        LoanService loanService;
+        final AtomicLong nextDevice = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = BenchmarkContext.start();
+            context.seedDevices(DEVICES);
+            loanService = context.bean(LoanService.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnDevice {
+        long deviceId;
+
+        @Setup(Level.Trial)
+        public void pick(Inventory inventory) {
+            deviceId = inventory.nextDevice.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public Loan registerAndReturn(Inventory inventory, OwnDevice device) {
+        Loan loan = new Loan();
+        loan.setDeviceId(device.deviceId);
+        loan.setBorrowedBy("Benchmark");
+        Loan created = inventory.loanService.registerLoan(loan);
+        return inventory.loanService.markAsReturned(created.getId());
+    }
+}
@@ -0,0 +1,81 @@
+package edu.unac.benchmark;
+
+import edu.unac.domain.DeviceStatus;
+import edu.unac.service.DeviceService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Status updates on one device from 1, 8 and 64 writers at once, all going through the
+ * version check and retry. Each invocation is {@link #UPDATES_PER_WRITER} updates per writer.
+ * Version conflicts, and updates that still conflicted after the last retry (409 at the API),
+ * are printed per trial.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OptimisticContentionBenchmark {
+    private static final int UPDATES_PER_WRITER = 50;
+    private static final long DEVICE_ID = 1L;
+
+    @Param({"1", "8", "64"})
+    public int writers;
+
+    private BenchmarkContext context;
+    private DeviceService deviceService;
+    private MeterRegistry registry;
+    private ExecutorService pool;
+    private final AtomicInteger updates = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        context.seedDevices(1);
+        deviceService = context.bean(DeviceService.class);
+        registry = context.bean(MeterRegistry.class);
+        pool = Executors.newFixedThreadPool(writers);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        System.out.printf("%n%d writers: %d updates, %.0f version conflicts, %d rejected after retries%n",
+                writers, updates.get(), registry.counter("inventory.optimistic.conflicts").count(), rejected.get());
+        pool.shutdownNow();
+        context.close();
+    }
+
+    @Benchmark
+    public void statusUpdates() throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> running = new ArrayList<>(writers);
+        for (int w = 0; w < writers; w++) {
+            DeviceStatus status = w % 2 == 0 ? DeviceStatus.MAINTENANCE : DeviceStatus.AVAILABLE;
+            running.add(pool.submit(() -> {
+                go.await();
+                for (int i = 0; i < UPDATES_PER_WRITER; i++) {
+                    try {
+                        deviceService.updateDeviceStatus(DEVICE_ID, status);
+                        updates.incrementAndGet();
+                    } catch (OptimisticLockingFailureException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> writer : running) {
+            writer.get();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package edu.unac.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.Loan;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialising 10k devices and 10k loans as JSON and CBOR, with and without gzip. The mappers are
+ * the ones the application uses. Gzip runs at the default level, as Tomcat's compression does.
+ * Bytes on the wire are printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadFormatBenchmark {
+    private static final int RECORDS = 10_000;
+
+    @Param({"json", "cbor"})
+    public String format;
+
+    @Param({"none", "gzip"})
+    public String compression;
+
+    private ObjectMapper mapper;
+    private List<Device> devices;
+    private List<Loan> loans;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        try (BenchmarkContext context = BenchmarkContext.start()) {
+            mapper = "cbor".equals(format)
+                    ? context.bean(MappingJackson2CborHttpMessageConverter.class).getObjectMapper()
+                    : context.bean(ObjectMapper.class);
+        }
+
+        devices = new ArrayList<>(RECORDS);
+        loans = new ArrayList<>(RECORDS);
+        DeviceStatus[] statuses = DeviceStatus.values();
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= RECORDS; i++) {
+            Device device = new Device((long) i, "Device " + i, "Type " + i % 20, "Room " + i % 50,
+                    statuses[i % statuses.length], now - i * 60_000L);
+            device.setActiveLoanId(i % 3 == 0 ? (long) i : null);
+            devices.add(device);
+            loans.add(new Loan((long) i, (long) i, "Borrower " + i % 1000, now - i * 3_600_000L,
+                    i % 2 == 0 ? now : 0L, i % 2 == 0, i % 5 == 0 ? now + i * 60_000L : null));
+        }
+
+        System.out.printf("%n%s/%s: devices %d bytes, loans %d bytes%n", format, compression,
+                devices().length, loans().length);
+    }
+
+    @Benchmark
+    public byte[] devices() throws IOException {
+        return write(devices);
+    }
+
+    @Benchmark
+    public byte[] loans() throws IOException {
+        return write(loans);
+    }
+
+    private byte[] write(List<?> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+        try (OutputStream out = "gzip".equals(compression) ? new GZIPOutputStream(bytes, 8192) : bytes) {
+            mapper.writeValue(out, records);
+        }
+        return bytes.toByteArray();
+    }
+}
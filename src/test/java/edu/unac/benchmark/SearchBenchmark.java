@@ -0,0 +1,63 @@
+package edu.unac.benchmark;
+
+import edu.unac.domain.CursorPage;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.DeviceView;
+import edu.unac.service.DeviceReadModel;
+import edu.unac.service.DeviceSearchIndex;
+import edu.unac.service.DeviceService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First page of /api/devices/search through DeviceService: an index lookup plus a
+ * DeviceReadModel lookup per hit. Seeded names look like "Device 4242", "Type 7", "Room 31".
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public long rows;
+
+    private BenchmarkContext context;
+    private DeviceService deviceService;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        context.seedDevices(rows);
+        // Seeded with SQL, so the index and the read model have to read the table again
+        context.bean(DeviceSearchIndex.class).rebuild();
+        context.bean(DeviceReadModel.class).rebuild();
+        deviceService = context.bean(DeviceService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    // Substring of one id, few matches spread over the table
+    @Benchmark
+    public CursorPage<DeviceView> selectiveSubstring() {
+        return deviceService.searchDevices("vice 424", null, null, 100);
+    }
+
+    // Every row matches, the first page is found immediately
+    @Benchmark
+    public CursorPage<DeviceView> broadWord() {
+        return deviceService.searchDevices("device", null, null, 100);
+    }
+
+    // Two word prefixes intersected and a status filter
+    @Benchmark
+    public CursorPage<DeviceView> prefixesWithStatus() {
+        return deviceService.searchDevices("type 7 room 3", DeviceStatus.AVAILABLE, null, 100);
+    }
+}
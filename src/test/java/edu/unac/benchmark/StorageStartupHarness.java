@@ -0,0 +1,186 @@
+package edu.unac.benchmark;
+
+import edu.unac.config.StorageSnapshots;
+import edu.unac.repository.DeviceRepository;
+import edu.unac.service.DeviceReadModel;
+import edu.unac.service.DeviceSearchIndex;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Time until the first query is answered, each case in a fresh JVM:
+ * <ul>
+ *     <li>reimport: in-memory database, rows inserted again after startup (set-based SQL, so a
+ *     lower bound for a real import)</li>
+ *     <li>warm: durable profile reopening the file left by the previous run</li>
+ *     <li>restore: durable profile on an empty directory, unpacked from the latest snapshot</li>
+ * </ul>
+ * The durable database is seeded once, in its own JVM, which writes the snapshot on shutdown.
+ *
+ * <p>Run with {@code mvn -Pload-test verify -Dload.harness=edu.unac.benchmark.StorageStartupHarness},
+ * scale with -Ddevices and -Dloans passed through {@code -Dload.jvmArgs}.
+ */
+public final class StorageStartupHarness {
+    private static final long DEVICES = Long.getLong("devices", 1_000_000);
+    private static final long LOANS = Long.getLong("loans", 10_000_000);
+    private static final String CHILD_JVM_ARGS = System.getProperty("child.jvmArgs", "-Xmx3g -XX:+ExitOnOutOfMemoryError");
+    private static final String RESULT = "RESULT ";
+    private static final Set<String> TEXT_KEYS = Set.of("mode", "error");
+
+    private StorageStartupHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            runPhase(args);
+            return;
+        }
+
+        Path root = Files.createTempDirectory("inventory-startup");
+        Path live = root.resolve("live");
+        Map<String, String> seed = child("seed", live.toString());
+        if (seed.containsKey("error")) {
+            throw new IllegalStateException("Seeding failed with " + seed.get("error"));
+        }
+        Path snapshot = Path.of(seed.get("snapshot"));
+
+        List<Map<String, String>> results = List.of(
+                child("reimport").named("reimport"),
+                child("start", live.toString(), "").named("warm"),
+                child("start", root.resolve("restored").toString(), snapshot.toString()).named("restore"));
+
+        System.out.printf("%d devices, %d loans, database %d MB, snapshot %d MB (shutdown with snapshot took %s ms)%n",
+                DEVICES, LOANS, Long.parseLong(seed.get("databaseBytes")) >> 20, Long.parseLong(seed.get("snapshotBytes")) >> 20,
+                seed.get("shutdownMs"));
+        System.out.printf("%-10s %14s %14s %14s %14s%n", "mode", "ready ms", "context ms", "load ms", "first query ms");
+        StringBuilder json = new StringBuilder("[");
+        for (Map<String, String> result : results) {
+            if (result.containsKey("error")) {
+                System.out.printf("%-10s failed with %s%n", result.get("mode"), result.get("error"));
+            } else {
+                System.out.printf("%-10s %14s %14s %14s %14s%n", result.get("mode"), result.get("readyMs"),
+                        result.get("contextMs"), result.get("loadMs"), result.get("firstQueryMs"));
+            }
+            json.append(json.length() > 1 ? "," : "").append(toJson(result));
+        }
+        Path output = Path.of("target", "storage-startup-results.json");
+        Files.createDirectories(output.getParent());
+        Files.writeString(output, json.append("]").toString());
+    }
+
+    private static void runPhase(String[] args) throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("inventory.archive.enabled", "false");
+        switch (args[0]) {
+            case "seed" -> {
+                Path directory = Path.of(args[1]);
+                properties.put("spring.profiles.active", "durable");
+                properties.put("inventory.storage.directory", directory.toString());
+                properties.put("inventory.storage.snapshot-on-shutdown", "true");
+                BenchmarkContext context = BenchmarkContext.start(properties);
+                StorageSnapshots snapshots = context.bean(StorageSnapshots.class);
+                context.seedDevices(DEVICES);
+                context.seedReturnedLoans(LOANS, DEVICES);
+                long shutdownStart = System.nanoTime();
+                context.close();
+                report(Map.of("snapshot", snapshots.latest(), "snapshotBytes", Files.size(snapshots.latest()),
+                        "shutdownMs", millisSince(shutdownStart),
+                        "databaseBytes", Files.size(directory.resolve("inventoryDb.mv.db"))));
+            }
+            case "reimport" -> {
+                long contextStart = System.nanoTime();
+                try (BenchmarkContext context = BenchmarkContext.start(properties)) {
+                    long contextMs = millisSince(contextStart);
+                    long loadStart = System.nanoTime();
+                    context.seedDevices(DEVICES);
+                    context.seedReturnedLoans(LOANS, DEVICES);
+                    context.bean(DeviceSearchIndex.class).rebuild();
+                    context.bean(DeviceReadModel.class).rebuild();
+                    long loadMs = millisSince(loadStart);
+                    reportReady(context, contextMs, loadMs);
+                }
+            }
+            case "start" -> {
+                properties.put("spring.profiles.active", "durable");
+                properties.put("inventory.storage.directory", args[1]);
+                properties.put("inventory.storage.restore-from", args[2]);
+                long contextStart = System.nanoTime();
+                try (BenchmarkContext context = BenchmarkContext.start(properties)) {
+                    reportReady(context, millisSince(contextStart), 0);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown phase " + args[0]);
+        }
+    }
+
+    private static void reportReady(BenchmarkContext context, long contextMs, long loadMs) {
+        long queryStart = System.nanoTime();
+        long devices = context.bean(DeviceRepository.class).count();
+        if (devices != DEVICES) {
+            throw new IllegalStateException("Expected " + DEVICES + " devices, found " + devices);
+        }
+        long firstQueryMs = millisSince(queryStart);
+        long readyMs = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        report(Map.of("readyMs", readyMs, "contextMs", contextMs, "loadMs", loadMs, "firstQueryMs", firstQueryMs));
+    }
+
+    private static void report(Map<String, Object> values) {
+        StringBuilder line = new StringBuilder(RESULT);
+        values.forEach((key, value) -> line.append(key).append('=').append(value).append(' '));
+        System.out.println(line.toString().trim());
+    }
+
+    private static ChildResult child(String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(CHILD_JVM_ARGS.trim().split("\\s+")));
+        command.add("-Ddevices=" + DEVICES);
+        command.add("-Dloans=" + LOANS);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(StorageStartupHarness.class.getName());
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        ChildResult result = new ChildResult();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    for (String pair : line.substring(RESULT.length()).split(" ")) {
+                        int split = pair.indexOf('=');
+                        result.put(pair.substring(0, split), pair.substring(split + 1));
+                    }
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result.isEmpty()) {
+            // The in-memory case can run out of heap at full scale, report it and carry on
+            result.put("error", "exit code " + process.exitValue());
+        }
+        return result;
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static String toJson(Map<String, String> result) {
+        StringBuilder json = new StringBuilder("{");
+        result.forEach((key, value) -> json.append(json.length() > 1 ? "," : "").append('"').append(key).append("\":")
+                .append(TEXT_KEYS.contains(key) ? "\"" + value + "\"" : value));
+        return json.append('}').toString();
+    }
+
+    private static final class ChildResult extends TreeMap<String, String> {
+        private ChildResult named(String mode) {
+            put("mode", mode);
+            return this;
+        }
+    }
+}
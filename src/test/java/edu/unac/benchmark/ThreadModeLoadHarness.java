@@ -0,0 +1,151 @@
+package edu.unac.benchmark;
+
+import edu.unac.service.DeviceReadModel;
+import org.springframework.boot.WebApplicationType;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closed-loop HTTP load against the application running on platform threads and then on
+ * virtual threads (the virtual profile). Reports p50/p99 latency and requests per second.
+ *
+ * <p>Run with {@code mvn -Pload-test verify}, tune with -Dconcurrency, -Drequests and -Ddevices
+ * passed through {@code -Dload.jvmArgs}.
+ */
+public final class ThreadModeLoadHarness {
+    private static final int CONCURRENCY = Integer.getInteger("concurrency", 2000);
+    private static final int REQUESTS = Integer.getInteger("requests", 100_000);
+    private static final int DEVICES = Integer.getInteger("devices", 10_000);
+
+    private ThreadModeLoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Result> results = List.of(run("platform", Map.of()), run("virtual", Map.of("spring.profiles.active", "virtual")));
+
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n", "mode", "req/s", "p50 ms", "p99 ms", "errors", "rejected");
+        StringBuilder json = new StringBuilder("[");
+        for (Result result : results) {
+            System.out.printf("%-10s %10.0f %10.2f %10.2f %10d %10d%n", result.mode, result.throughput,
+                    result.p50Millis, result.p99Millis, result.errors, result.rejected);
+            json.append(json.length() > 1 ? "," : "").append(result.toJson());
+        }
+        Path output = Path.of("target", "thread-mode-results.json");
+        Files.createDirectories(output.getParent());
+        Files.writeString(output, json.append("]").toString());
+    }
+
+    private static Result run(String mode, Map<String, Object> properties) throws Exception {
+        try (BenchmarkContext context = BenchmarkContext.start(WebApplicationType.SERVLET, properties)) {
+            context.seedDevices(DEVICES);
+            context.bean(DeviceReadModel.class).rebuild();
+            String base = "http://localhost:" + context.port() + "/api";
+
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(Executors.newVirtualThreadPerTaskExecutor())
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+
+            // Short warm-up so both modes are measured with a compiled hot path
+            drive(client, base, Math.min(CONCURRENCY, 200), REQUESTS / 10);
+            return drive(client, base, CONCURRENCY, REQUESTS).named(mode);
+        }
+    }
+
+    private static Result drive(HttpClient client, String base, int concurrency, int requests) throws Exception {
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+
+        long start = System.nanoTime();
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                inFlight.acquire();
+                int index = i;
+                callers.submit(() -> {
+                    try {
+                        long sent = System.nanoTime();
+                        int status = client.send(request(base, index), HttpResponse.BodyHandlers.discarding()).statusCode();
+                        latencies[index] = System.nanoTime() - sent;
+                        if (status == 503 || status == 429) {
+                            rejected.incrementAndGet();
+                        } else if (status >= 500) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return new Result(requests / (elapsed / 1e9), percentile(latencies, 0.50), percentile(latencies, 0.99),
+                errors.get(), rejected.get());
+    }
+
+    // 80% single-device reads, 10% page reads, 10% loan attempts on random devices
+    private static HttpRequest request(String base, int index) {
+        long deviceId = ThreadLocalRandom.current().nextLong(1, DEVICES + 1);
+        int kind = index % 10;
+        if (kind == 0) {
+            return HttpRequest.newBuilder(URI.create(base + "/loans"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"deviceId\":" + deviceId + ",\"borrowedBy\":\"load\"}"))
+                    .build();
+        }
+        if (kind == 1) {
+            return HttpRequest.newBuilder(URI.create(base + "/devices?size=50&cursor=" + deviceId)).build();
+        }
+        return HttpRequest.newBuilder(URI.create(base + "/devices/" + deviceId)).build();
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+    }
+
+    private static final class Result {
+        private String mode;
+        private final double throughput;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final int errors;
+        private final int rejected;
+
+        private Result(double throughput, double p50Millis, double p99Millis, int errors, int rejected) {
+            this.throughput = throughput;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.errors = errors;
+            this.rejected = rejected;
+        }
+
+        private Result named(String mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        private String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"mode\":\"%s\",\"concurrency\":%d,\"requests\":%d,\"requestsPerSecond\":%.1f,\"p50Ms\":%.3f,\"p99Ms\":%.3f,\"errors\":%d,\"rejected\":%d}",
+                    mode, CONCURRENCY, REQUESTS, throughput, p50Millis, p99Millis, errors, rejected);
+        }
+    }
+}
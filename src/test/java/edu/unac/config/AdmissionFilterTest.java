@@ -0,0 +1,143 @@
+package edu.unac.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionFilterTest {
+    private final AtomicLong now = new AtomicLong();
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void clientOverItsRate_shouldGetRetryAfterUntilRefilled() throws Exception {
+        // 2 per second, burst 2
+        AdmissionFilter filter = filter(new ClientBuckets(2, 2, 4, 100, now::get), new Semaphore(10));
+
+        assertEquals(200, post(filter, "10.0.0.1").getStatus());
+        assertEquals(200, post(filter, "10.0.0.1").getStatus());
+        MockHttpServletResponse limited = post(filter, "10.0.0.1");
+        assertEquals(429, limited.getStatus());
+        assertEquals("1", limited.getHeader("Retry-After"));
+        assertEquals(200, post(filter, "10.0.0.2").getStatus());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(200, post(filter, "10.0.0.1").getStatus());
+        assertEquals(4, count("admitted"));
+        assertEquals(1, count("rate_limited"));
+    }
+
+    @Test
+    void writesOverConcurrencyLimit_shouldBeShed() throws Exception {
+        Semaphore permits = new Semaphore(1);
+        AdmissionFilter filter = filter(new ClientBuckets(1000, 1000, 4, 100), permits);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> {
+            try {
+                filter.doFilter(request("POST", "10.0.0.1"), new MockHttpServletResponse(), (req, res) -> {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        MockHttpServletResponse shed = new MockHttpServletResponse();
+        filter.doFilter(request("PUT", "10.0.0.2"), shed, (req, res) -> fail("should not run"));
+        assertEquals(429, shed.getStatus());
+        assertEquals("1", shed.getHeader("Retry-After"));
+        assertEquals(1, count("shed"));
+
+        // Reads never wait for a permit
+        MockHttpServletResponse read = new MockHttpServletResponse();
+        filter.doFilter(request("GET", "10.0.0.2"), read, (req, res) -> { });
+        assertEquals(200, read.getStatus());
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        assertEquals(1, permits.availablePermits());
+    }
+
+    @Test
+    void permitReleasedEarly_shouldAdmitNextWriteAndNotBeReleasedTwice() throws Exception {
+        Semaphore permits = new Semaphore(1);
+        AdmissionFilter filter = filter(new ClientBuckets(1000, 1000, 4, 100), permits);
+        CountDownLatch queued = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Like a write waiting for its group commit
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                filter.doFilter(request("POST", "10.0.0.1"), new MockHttpServletResponse(), (req, res) -> {
+                    AdmissionFilter.releasePermit(req);
+                    AdmissionFilter.releasePermit(req);
+                    queued.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+
+        assertEquals(200, post(filter, "10.0.0.2").getStatus());
+        assertEquals(0, count("shed"));
+
+        release.countDown();
+        waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(1, permits.availablePermits());
+    }
+
+    @Test
+    void bucketTable_shouldForgetLeastRecentClientsPerStripe() {
+        ClientBuckets buckets = new ClientBuckets(1, 1, 1, 3, now::get);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, buckets.tryAcquire("client-" + i));
+        }
+
+        assertEquals(3, buckets.clients());
+        assertTrue(buckets.tryAcquire("client-99") > 0);
+        assertEquals(0, buckets.tryAcquire("client-0"));
+    }
+
+    private AdmissionFilter filter(ClientBuckets buckets, Semaphore permits) {
+        return new AdmissionFilter("loans", buckets, permits, 10, "", registry);
+    }
+
+    private static MockHttpServletResponse post(AdmissionFilter filter, String client) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request("POST", client), response, (req, res) -> { });
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String client) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/loans");
+        request.setRemoteAddr(client);
+        return request;
+    }
+
+    private double count(String outcome) {
+        return registry.counter("inventory.admission.requests", "endpoint", "loans", "outcome", outcome).count();
+    }
+}
@@ -0,0 +1,59 @@
+package edu.unac.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkheadFilterTest {
+
+    @Test
+    void requestWithinLimit_shouldPassThrough() throws Exception {
+        BulkheadFilter filter = new BulkheadFilter(1, 10);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/devices"), response, (req, res) -> { });
+
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    void requestOverLimit_shouldBeShedWithRetryAfter() throws Exception {
+        BulkheadFilter filter = new BulkheadFilter(1, 10);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> {
+            try {
+                filter.doFilter(new MockHttpServletRequest("GET", "/api/devices"), new MockHttpServletResponse(), (req, res) -> {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        MockHttpServletResponse shed = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/devices"), shed, (req, res) -> fail("should not run"));
+
+        assertEquals(503, shed.getStatus());
+        assertEquals("1", shed.getHeader("Retry-After"));
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        MockHttpServletResponse afterRelease = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/devices"), afterRelease, (req, res) -> { });
+        assertEquals(200, afterRelease.getStatus());
+    }
+}
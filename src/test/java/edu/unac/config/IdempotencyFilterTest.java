@@ -0,0 +1,189 @@
+package edu.unac.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyFilterTest {
+    private final Cache<String, IdempotencyFilter.Entry> results = Caffeine.newBuilder().maximumSize(100).build();
+    private final IdempotencyFilter filter = new IdempotencyFilter(results, "X-Client-Id");
+
+    @Test
+    void retryWithSameKey_shouldReplayOriginalResponse() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        filter.doFilter(post("k1", "{\"name\":\"Laptop\"}"), first, (req, res) -> {
+            String body = new String(req.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            HttpServletResponse http = (HttpServletResponse) res;
+            http.setStatus(201);
+            http.setContentType("application/json");
+            http.getWriter().write("{\"id\":" + runs.incrementAndGet() + ",\"echo\":" + body + "}");
+        });
+        MockHttpServletResponse retry = new MockHttpServletResponse();
+        filter.doFilter(post("k1", "{\"name\":\"Laptop\"}"), retry, (req, res) -> fail("should not run"));
+
+        assertEquals(1, runs.get());
+        assertEquals(201, retry.getStatus());
+        assertEquals("application/json", retry.getContentType());
+        assertEquals(first.getContentAsString(), retry.getContentAsString());
+        assertEquals("true", retry.getHeader(IdempotencyFilter.REPLAYED_HEADER));
+        assertNull(first.getHeader(IdempotencyFilter.REPLAYED_HEADER));
+    }
+
+    @Test
+    void sameKeyWithDifferentBody_shouldBeRejected() throws Exception {
+        filter.doFilter(post("k1", "{\"name\":\"Laptop\"}"), new MockHttpServletResponse(), (req, res) -> { });
+
+        MockHttpServletResponse reused = new MockHttpServletResponse();
+        filter.doFilter(post("k1", "{\"name\":\"Tablet\"}"), reused, (req, res) -> fail("should not run"));
+
+        assertEquals(422, reused.getStatus());
+    }
+
+    @Test
+    void retryWhileFirstIsRunning_shouldGetConflict() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> {
+            try {
+                filter.doFilter(post("k1", "{}"), new MockHttpServletResponse(), (req, res) -> {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        MockHttpServletResponse retry = new MockHttpServletResponse();
+        filter.doFilter(post("k1", "{}"), retry, (req, res) -> fail("should not run"));
+        assertEquals(409, retry.getStatus());
+        assertEquals("1", retry.getHeader("Retry-After"));
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        MockHttpServletResponse replayed = new MockHttpServletResponse();
+        filter.doFilter(post("k1", "{}"), replayed, (req, res) -> fail("should not run"));
+        assertEquals("true", replayed.getHeader(IdempotencyFilter.REPLAYED_HEADER));
+    }
+
+    @Test
+    void serverError_shouldReleaseKey() throws Exception {
+        filter.doFilter(post("k1", "{}"), new MockHttpServletResponse(),
+                (req, res) -> ((HttpServletResponse) res).setStatus(503));
+
+        AtomicInteger runs = new AtomicInteger();
+        MockHttpServletResponse retry = new MockHttpServletResponse();
+        filter.doFilter(post("k1", "{}"), retry, (req, res) -> runs.incrementAndGet());
+
+        assertEquals(1, runs.get());
+        assertEquals(200, retry.getStatus());
+    }
+
+    @Test
+    void tooManyRequests_shouldReleaseKey() throws Exception {
+        filter.doFilter(post("k1", "{}"), new MockHttpServletResponse(),
+                (req, res) -> ((HttpServletResponse) res).setStatus(429));
+
+        AtomicInteger runs = new AtomicInteger();
+        filter.doFilter(post("k1", "{}"), new MockHttpServletResponse(), (req, res) -> runs.incrementAndGet());
+
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void sameKeyFromAnotherClient_shouldRunAgain() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        MockHttpServletRequest byAddress = post("k1", "{}");
+        byAddress.setRemoteAddr("10.0.0.2");
+        MockHttpServletRequest byHeader = post("k1", "{}");
+        byHeader.addHeader("X-Client-Id", "kiosk-3");
+        MockHttpServletRequest sameHeaderElsewhere = post("k1", "{}");
+        sameHeaderElsewhere.setRemoteAddr("10.0.0.9");
+        sameHeaderElsewhere.addHeader("X-Client-Id", "kiosk-3");
+
+        filter.doFilter(post("k1", "{}"), new MockHttpServletResponse(), (req, res) -> runs.incrementAndGet());
+        filter.doFilter(byAddress, new MockHttpServletResponse(), (req, res) -> runs.incrementAndGet());
+        filter.doFilter(byHeader, new MockHttpServletResponse(), (req, res) -> runs.incrementAndGet());
+        MockHttpServletResponse replayed = new MockHttpServletResponse();
+        filter.doFilter(sameHeaderElsewhere, replayed, (req, res) -> fail("should not run"));
+
+        assertEquals(3, runs.get());
+        assertEquals("true", replayed.getHeader(IdempotencyFilter.REPLAYED_HEADER));
+    }
+
+    @Test
+    void readListener_shouldGetBufferedBody() throws Exception {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        AtomicBoolean allRead = new AtomicBoolean();
+
+        filter.doFilter(post("k1", "{\"name\":\"Laptop\"}"), new MockHttpServletResponse(), (req, res) -> {
+            ServletInputStream in = req.getInputStream();
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    byte[] buffer = new byte[4];
+                    while (in.isReady() && !in.isFinished()) {
+                        read.write(buffer, 0, in.read(buffer));
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() {
+                    allRead.set(true);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fail(t);
+                }
+            });
+        });
+
+        assertEquals("{\"name\":\"Laptop\"}", read.toString(StandardCharsets.UTF_8));
+        assertTrue(allRead.get());
+    }
+
+    @Test
+    void requestWithoutKey_shouldAlwaysRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/devices");
+            request.setContent("{}".getBytes(StandardCharsets.UTF_8));
+            filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> runs.incrementAndGet());
+        }
+
+        assertEquals(2, runs.get());
+        assertEquals(0, results.estimatedSize());
+    }
+
+    private static MockHttpServletRequest post(String key, String body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/devices");
+        request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, key);
+        request.setContentType("application/json");
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+}
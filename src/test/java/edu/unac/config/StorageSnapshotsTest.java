@@ -0,0 +1,93 @@
+package edu.unac.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageSnapshotsTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void snapshot_shouldRestoreIntoEmptyDirectory() {
+        Path live = root.resolve("live");
+        SingleConnectionDataSource dataSource = open(live);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE device (id BIGINT PRIMARY KEY, name VARCHAR(255))");
+        jdbc.update("INSERT INTO device SELECT X, 'Device ' || X FROM SYSTEM_RANGE(1, 1000)");
+        dataSource.destroy();
+
+        Path snapshot = new StorageSnapshots(live, root.resolve("snapshots"), false).write();
+        Path restored = root.resolve("restored");
+        assertTrue(new StorageSnapshots(restored, root.resolve("snapshots"), false).restoreIfMissing(snapshot));
+
+        SingleConnectionDataSource reopened = open(restored);
+        try {
+            assertEquals(1000, new JdbcTemplate(reopened).queryForObject("SELECT COUNT(*) FROM device", Integer.class));
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void write_shouldWaitUntilDatabaseIsClosed() throws Exception {
+        Path live = root.resolve("live");
+        SingleConnectionDataSource dataSource = open(live);
+        new JdbcTemplate(dataSource).execute("CREATE TABLE device (id BIGINT PRIMARY KEY)");
+
+        StorageSnapshots snapshots = new StorageSnapshots(live, root.resolve("snapshots"), false);
+        CompletableFuture<Path> snapshot = CompletableFuture.supplyAsync(snapshots::write);
+        Thread.sleep(300);
+        assertFalse(snapshot.isDone());
+
+        dataSource.destroy();
+        assertEquals(snapshots.latest(), snapshot.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shutdown_shouldWriteSnapshotOnlyWhenEnabled() {
+        Path live = root.resolve("live");
+        SingleConnectionDataSource dataSource = open(live);
+        new JdbcTemplate(dataSource).execute("CREATE TABLE device (id BIGINT PRIMARY KEY)");
+        dataSource.destroy();
+
+        StorageSnapshots disabled = new StorageSnapshots(live, root.resolve("off"), false);
+        disabled.writeOnShutdown();
+        assertFalse(Files.exists(disabled.latest()));
+
+        StorageSnapshots enabled = new StorageSnapshots(live, root.resolve("on"), true);
+        enabled.writeOnShutdown();
+        assertTrue(Files.exists(enabled.latest()));
+    }
+
+    @Test
+    void restore_shouldNeverOverwriteExistingDatabase() {
+        Path live = root.resolve("live");
+        SingleConnectionDataSource dataSource = open(live);
+        new JdbcTemplate(dataSource).execute("CREATE TABLE device (id BIGINT PRIMARY KEY)");
+        dataSource.destroy();
+
+        assertFalse(new StorageSnapshots(live, root, false).restoreIfMissing(root.resolve("missing.mv.db")));
+        assertTrue(Files.exists(live.resolve(StorageSnapshots.DATABASE_FILE)));
+    }
+
+    @Test
+    void restore_withMissingSnapshot_shouldFail() {
+        StorageSnapshots snapshots = new StorageSnapshots(root.resolve("empty"), root, false);
+
+        assertThrows(IllegalStateException.class, () -> snapshots.restoreIfMissing(root.resolve("missing.mv.db")));
+    }
+
+    private static SingleConnectionDataSource open(Path directory) {
+        return new SingleConnectionDataSource("jdbc:h2:file:" + directory.toAbsolutePath() + "/inventoryDb", "sa", "", true);
+    }
+}
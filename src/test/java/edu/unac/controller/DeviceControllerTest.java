@@ -1,11 +1,13 @@
 package edu.unac.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import edu.unac.domain.Device;
 import edu.unac.domain.DeviceStatus;
 import edu.unac.domain.Loan;
 import edu.unac.repository.DeviceRepository;
 import edu.unac.repository.LoanRepository;
+import edu.unac.service.DeviceReadModel;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,10 +16,17 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.List;
+import java.util.UUID;
+
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -35,9 +44,14 @@ class DeviceControllerTest {
     @Autowired
     private LoanRepository loanRepo;
 
+    @Autowired
+    private DeviceReadModel readModel;
+
     @BeforeEach
     void cleanDB() {
         deviceRepo.deleteAll();
+        // Other cached test contexts share the in-memory database behind this view's back
+        readModel.rebuild();
     }
 
     @Test
@@ -48,7 +62,30 @@ class DeviceControllerTest {
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(newDevice)))
                 .andExpect(status().isCreated())
-                .andExpect(jsonPath("$.name", is("Smartphone")));
+                .andExpect(jsonPath("$.name", is("Smartphone")))
+                .andExpect(jsonPath("$.version").doesNotHaveJsonPath());
+    }
+
+    @Test
+    void saveDeviceRetriedWithIdempotencyKey() throws Exception {
+        var newDevice = new Device(null, "Smartphone", "Mobile Devices", "Tech Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis());
+        String key = UUID.randomUUID().toString();
+
+        String created = mockMvc.perform(post("/api/devices")
+                        .header("Idempotency-Key", key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(newDevice)))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        mockMvc.perform(post("/api/devices")
+                        .header("Idempotency-Key", key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(newDevice)))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(content().json(created));
+
+        assertEquals(1, deviceRepo.count());
     }
 
     @Test
@@ -61,6 +98,40 @@ class DeviceControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void importDevicesFromJsonArray() throws Exception {
+        var devices = List.of(
+                new Device(null, "Smartphone", "Mobile Devices", "Tech Storage", null, 0L),
+                new Device(null, "X", "Mobile Devices", "Tech Storage", null, 0L),
+                new Device(null, "Projector", "Multimedia", "Conference Room", null, 0L));
+
+        mockMvc.perform(post("/api/devices/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(devices)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported", is(2)))
+                .andExpect(jsonPath("$.errors", hasSize(1)))
+                .andExpect(jsonPath("$.errors[0].row", is(1)));
+
+        mockMvc.perform(get("/api/devices").param("status", "AVAILABLE"))
+                .andExpect(jsonPath("$", hasSize(2)));
+    }
+
+    @Test
+    void importDevicesFromNdjson() throws Exception {
+        String body = "{\"name\":\"Smartphone\",\"type\":\"Mobile Devices\",\"location\":\"Tech Storage\"}\n"
+                + "{\"name\":\"Projector\",\"type\":\"Multimedia\",\"location\":\"Room 101\"}\n"
+                + "{\"name\": broken\n";
+
+        mockMvc.perform(post("/api/devices/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported", is(2)))
+                .andExpect(jsonPath("$.errors", hasSize(1)))
+                .andExpect(jsonPath("$.errors[0].row", is(2)));
+    }
+
     @Test
     void listDevices() throws Exception {
         deviceRepo.save(new Device(null, "Smartphone", "Mobile Devices", "Tech Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
@@ -71,13 +142,67 @@ class DeviceControllerTest {
                 .andExpect(jsonPath("$", hasSize(2)));
     }
 
+    @Test
+    void listDevicesByPages() throws Exception {
+        deviceRepo.save(new Device(null, "Smartphone", "Mobile Devices", "Tech Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        var second = deviceRepo.save(new Device(null, "Projector", "Multimedia", "Conference Room", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        deviceRepo.save(new Device(null, "Tablet", "Mobile Devices", "Tech Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+
+        var firstPage = mockMvc.perform(get("/api/devices").param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(header().string("X-Next-Cursor", second.getId().toString()))
+                .andReturn();
+
+        mockMvc.perform(get("/api/devices").param("size", "2")
+                        .param("cursor", firstPage.getResponse().getHeader("X-Next-Cursor")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Tablet")))
+                .andExpect(header().doesNotExist("X-Next-Cursor"));
+    }
+
+    @Test
+    void listDevicesFiltered() throws Exception {
+        deviceRepo.save(new Device(null, "Smartphone", "Mobile Devices", "Tech Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        deviceRepo.save(new Device(null, "Projector", "Multimedia", "Conference Room", DeviceStatus.MAINTENANCE, System.currentTimeMillis()));
+        deviceRepo.save(new Device(null, "Tablet", "Mobile Devices", "Room 101", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+
+        mockMvc.perform(get("/api/devices").param("status", "AVAILABLE").param("type", "Mobile Devices")
+                        .param("location", "Tech Storage"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Smartphone")));
+    }
+
+    @Test
+    void summary() throws Exception {
+        loanRepo.deleteAll();
+        var projector = deviceRepo.save(new Device(null, "Projector", "Multimedia", "Room 101", DeviceStatus.LOANED, System.currentTimeMillis()));
+        deviceRepo.save(new Device(null, "Speaker", "Multimedia", "Room 102", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        deviceRepo.save(new Device(null, "Tablet", "Mobile Devices", "Room 101", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        loanRepo.save(new Loan(null, projector.getId(), "Mark Evans", System.currentTimeMillis(), 0L, false));
+        loanRepo.save(new Loan(null, projector.getId(), "Ana Ruiz", 1000L, 2000L, true));
+
+        mockMvc.perform(get("/api/devices/summary"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.devicesByStatus.AVAILABLE", is(2)))
+                .andExpect(jsonPath("$.devicesByStatus.LOANED", is(1)))
+                .andExpect(jsonPath("$.devicesByType.Multimedia", is(2)))
+                .andExpect(jsonPath("$.devicesByLocation['Room 101']", is(2)))
+                .andExpect(jsonPath("$.activeLoans", is(1)))
+                .andExpect(jsonPath("$.returnedLoans", is(1)));
+        loanRepo.deleteAll();
+    }
+
     @Test
     void getById() throws Exception {
         var saved = deviceRepo.save(new Device(null, "Smartphone", "Mobile Devices", "Tech Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
 
         mockMvc.perform(get("/api/devices/" + saved.getId()))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.name", is("Smartphone")));
+                .andExpect(jsonPath("$.name", is("Smartphone")))
+                .andExpect(jsonPath("$.version").doesNotHaveJsonPath());
     }
 
     @Test
@@ -115,4 +240,92 @@ class DeviceControllerTest {
         mockMvc.perform(delete("/api/devices/" + device.getId()))
                 .andExpect(status().isConflict());
     }
+
+    @Test
+    void deviceListIsConditional() throws Exception {
+        String etag = mockMvc.perform(get("/api/devices"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/api/devices").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        var device = new Device(null, "Conditional Tablet", "Mobile Devices", "Shelf C", DeviceStatus.AVAILABLE, 0L);
+        mockMvc.perform(post("/api/devices")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(device)))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/api/devices").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name", is("Conditional Tablet")));
+    }
+
+    @Test
+    void deviceListCanBeReadAsCbor() throws Exception {
+        deviceRepo.save(new Device(null, "Barcode Scanner", "IT Department", "Shelf A1", DeviceStatus.AVAILABLE, 0L));
+
+        byte[] body = mockMvc.perform(get("/api/devices").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().stringValues("Vary", hasItem("Accept")))
+                .andExpect(header().string("ETag", startsWith("W/")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Device[] devices = new CBORMapper().readValue(body, Device[].class);
+        assertEquals(1, devices.length);
+        assertEquals("Barcode Scanner", devices[0].getName());
+    }
+
+    @Test
+    void deviceByIdIsConditional() throws Exception {
+        var saved = deviceRepo.save(new Device(null, "Smartphone", "Mobile Devices", "Tech Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+
+        String etag = mockMvc.perform(get("/api/devices/" + saved.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/api/devices/" + saved.getId()).header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(put("/api/devices/" + saved.getId() + "/status")
+                        .param("status", DeviceStatus.MAINTENANCE.name()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/devices/" + saved.getId()).header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("MAINTENANCE")));
+    }
+
+    @Test
+    void searchDevices() throws Exception {
+        for (String name : List.of("Zephyr Projector", "Zephyr Speaker", "Zephyr Projector Lamp")) {
+            var device = new Device(null, name, "Multimedia", "Building Z", DeviceStatus.AVAILABLE, 0L);
+            mockMvc.perform(post("/api/devices")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(device)))
+                    .andExpect(status().isCreated());
+        }
+
+        String cursor = mockMvc.perform(get("/api/devices/search").param("q", "zephyr jector z").param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Zephyr Projector")))
+                .andExpect(jsonPath("$[0].activeLoanId").hasJsonPath())
+                .andExpect(jsonPath("$[0].version").doesNotHaveJsonPath())
+                .andReturn().getResponse().getHeader("X-Next-Cursor");
+        assertNotNull(cursor);
+
+        mockMvc.perform(get("/api/devices/search").param("q", "zephyr jector z").param("cursor", cursor))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Zephyr Projector Lamp")));
+
+        mockMvc.perform(get("/api/devices/search").param("q", "zephyr").param("status", "LOANED"))
+                .andExpect(jsonPath("$", hasSize(0)));
+
+        mockMvc.perform(get("/api/devices/search").param("q", "  "))
+                .andExpect(status().isBadRequest());
+    }
 }
@@ -0,0 +1,93 @@
+package edu.unac.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class EventControllerTest {
+    private static final Pattern EVENT_ID = Pattern.compile("id:(\\S+)\\nevent:device\\n");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void subscriberReceivesDeviceChanges() throws Exception {
+        MvcResult stream = subscribe(null);
+
+        registerDevice("Event Laptop");
+
+        String body = awaitContent(stream, "Event Laptop");
+        assertTrue(body.contains("event:device"));
+        assertTrue(body.contains("\"type\":\"REGISTERED\""));
+    }
+
+    @Test
+    void resumeReplaysOnlyMissedEvents() throws Exception {
+        MvcResult first = subscribe(null);
+        registerDevice("Resume Before");
+        Matcher id = EVENT_ID.matcher(awaitContent(first, "Resume Before"));
+        assertTrue(id.find());
+
+        registerDevice("Resume After");
+        MvcResult resumed = subscribe(id.group(1));
+
+        String body = awaitContent(resumed, "Resume After");
+        assertFalse(body.contains("Resume Before"));
+    }
+
+    @Test
+    void unknownLastEventIdAsksForResync() throws Exception {
+        MvcResult stream = subscribe("previous-run:42");
+
+        assertTrue(awaitContent(stream, "event:resync").contains("event:resync"));
+    }
+
+    private MvcResult subscribe(String lastEventId) throws Exception {
+        var request = get("/api/events").accept(MediaType.TEXT_EVENT_STREAM);
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        return mockMvc.perform(request)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+    }
+
+    private void registerDevice(String name) throws Exception {
+        var device = new Device(null, name, "Laptop", "Shelf E", DeviceStatus.AVAILABLE, 0L);
+        mockMvc.perform(post("/api/devices")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(device)))
+                .andExpect(status().isCreated());
+    }
+
+    // Events are sent from the feed's own threads
+    private String awaitContent(MvcResult stream, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String body = stream.getResponse().getContentAsString();
+        while (!body.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            body = stream.getResponse().getContentAsString();
+        }
+        assertTrue(body.contains(expected), "Expected " + expected + " in " + body);
+        return body;
+    }
+}
@@ -2,12 +2,20 @@ package edu.unac.controller;
 
 import edu.unac.domain.Device;
 import edu.unac.domain.Loan;
+import edu.unac.domain.LoanReturnRequest;
+import edu.unac.repository.ArchivedLoanRepository;
 import edu.unac.repository.LoanRepository;
+import edu.unac.service.LoanArchiver;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import edu.unac.domain.DeviceStatus;
 import edu.unac.repository.DeviceRepository;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,14 +24,22 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.List;
+import java.util.UUID;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 @SpringBootTest
 @AutoConfigureMockMvc
+@AutoConfigureObservability
 class LoanControllerTest {
 
     @Autowired
@@ -38,6 +54,15 @@ class LoanControllerTest {
     @Autowired
     private ObjectMapper mapper;
 
+    @Autowired
+    private ArchivedLoanRepository archiveData;
+
+    @Autowired
+    private LoanArchiver archiver;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     void cleanDb() {
         loanData.deleteAll();
@@ -61,6 +86,37 @@ class LoanControllerTest {
                 .andExpect(jsonPath("$.deviceId", is(dev.getId().intValue())));
     }
 
+    @Test
+    void createLoanRetriedWithIdempotencyKey() throws Exception {
+        Device dev = deviceData.save(
+                new Device(null, "Printer Pro", "Administration", "Main Storage", DeviceStatus.AVAILABLE, System.currentTimeMillis())
+        );
+        String body = mapper.writeValueAsString(new Loan(null, dev.getId(), "Laura Gomez",
+                System.currentTimeMillis(), 0L, false));
+        String key = UUID.randomUUID().toString();
+
+        String created = mvc.perform(post("/api/loans")
+                        .header("Idempotency-Key", key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        // Without the key this would be a 400, the device is on loan now
+        mvc.perform(post("/api/loans")
+                        .header("Idempotency-Key", key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isCreated())
+                .andExpect(content().json(created));
+        mvc.perform(post("/api/loans")
+                        .header("Idempotency-Key", key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body.replace("Laura Gomez", "Someone Else")))
+                .andExpect(status().isUnprocessableEntity());
+
+        assertEquals(1, loanData.count());
+    }
+
     @Test
     void createLoanWithInvalidDevice() throws Exception {
         Loan loan = new Loan(null, 999L, "John Doe",
@@ -85,6 +141,94 @@ class LoanControllerTest {
                 .andExpect(jsonPath("$", hasSize(2)));
     }
 
+    @Test
+    void getLoansFiltered() throws Exception {
+        Device d1 = deviceData.save(new Device(null, "Barcode Scanner", "IT Department", "Shelf A1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Device d2 = deviceData.save(new Device(null, "LCD Monitor", "IT Department", "Shelf B1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+
+        loanData.save(new Loan(null, d1.getId(), "Carlos Smith", System.currentTimeMillis(), System.currentTimeMillis() + 604800000L, true));
+        loanData.save(new Loan(null, d1.getId(), "Carlos Smith", System.currentTimeMillis(), System.currentTimeMillis() + 604800000L, false));
+        loanData.save(new Loan(null, d2.getId(), "Carlos Smith", System.currentTimeMillis(), System.currentTimeMillis() + 604800000L, false));
+
+        mvc.perform(get("/api/loans")
+                        .param("returned", "false")
+                        .param("deviceId", d1.getId().toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].returned", is(false)));
+
+        mvc.perform(get("/api/loans").param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(header().exists("X-Next-Cursor"));
+    }
+
+    @Test
+    void exportLoansAsNdjson() throws Exception {
+        Device d1 = deviceData.save(new Device(null, "Barcode Scanner", "IT Department", "Shelf A1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Device d2 = deviceData.save(new Device(null, "LCD Monitor", "IT Department", "Shelf B1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+
+        loanData.save(new Loan(null, d1.getId(), "Carlos Smith", 1000L, 2000L, true));
+        loanData.save(new Loan(null, d1.getId(), "Ana Ruiz", 5000L, 0L, false));
+        loanData.save(new Loan(null, d2.getId(), "Luis Mora", 1500L, 0L, false));
+
+        var pending = mvc.perform(get("/api/loans/export")
+                        .param("from", "1000")
+                        .param("to", "4000")
+                        .param("deviceId", d1.getId().toString()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.trim().split("\n");
+        assertEquals(1, lines.length);
+        assertEquals("Carlos Smith", mapper.readValue(lines[0], Loan.class).getBorrowedBy());
+    }
+
+    @Test
+    void exportLoansAsCsv() throws Exception {
+        Device d = deviceData.save(new Device(null, "Barcode Scanner", "IT Department", "Shelf A1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Loan loan = loanData.save(new Loan(null, d.getId(), "Smith, Carlos", 1000L, 2000L, true));
+
+        var pending = mvc.perform(get("/api/loans/export").param("format", "csv"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(content().string("id,deviceId,borrowedBy,startDate,endDate,returned,dueDate\n"
+                        + loan.getId() + "," + d.getId() + ",\"Smith, Carlos\",1000,2000,true,\n"));
+    }
+
+    @Test
+    void exportLoansAsCborSequence() throws Exception {
+        Device d = deviceData.save(new Device(null, "Barcode Scanner", "IT Department", "Shelf A1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        loanData.save(new Loan(null, d.getId(), "Carlos Smith", 1000L, 2000L, true));
+        loanData.save(new Loan(null, d.getId(), "Ana Ruiz", 5000L, 0L, false));
+
+        var pending = mvc.perform(get("/api/loans/export").param("format", "cbor"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] body = mvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor-seq"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        List<Loan> loans = new CBORMapper().readerFor(Loan.class).<Loan>readValues(body).readAll();
+        assertEquals(List.of("Carlos Smith", "Ana Ruiz"), loans.stream().map(Loan::getBorrowedBy).toList());
+    }
+
+    @Test
+    void exportLoansUnknownFormat() throws Exception {
+        mvc.perform(get("/api/loans/export").param("format", "xml"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getLoanById() throws Exception {
         Device d = deviceData.save(new Device(null, "Android Tablet", "Mobile Devices", "Room 101", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
@@ -121,6 +265,56 @@ class LoanControllerTest {
                 .andExpect(status().isConflict());
     }
 
+    @Test
+    void activeLoanFollowsLoanLifecycle() throws Exception {
+        Device d = deviceData.save(new Device(null, "Laser Pointer", "Multimedia", "Room 204", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Loan loan = new Loan(null, d.getId(), "Paula Diaz", 0L, 0L, false);
+
+        String body = mvc.perform(post("/api/loans")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(loan)))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        Loan created = mapper.readValue(body, Loan.class);
+
+        mvc.perform(get("/api/loans/device/" + d.getId() + "/active"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(created.getId().intValue())))
+                .andExpect(jsonPath("$.borrowedBy", is("Paula Diaz")));
+
+        mvc.perform(put("/api/loans/" + created.getId() + "/return"))
+                .andExpect(status().isOk());
+
+        mvc.perform(get("/api/loans/device/" + d.getId() + "/active"))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/devices/" + d.getId()))
+                .andExpect(jsonPath("$.status", is("AVAILABLE")));
+    }
+
+    @Test
+    void loanOutcomesAreExportedAsMetrics() throws Exception {
+        Device dev = deviceData.save(new Device(null, "Document Camera", "Multimedia", "Room 12", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Loan loan = new Loan(null, dev.getId(), "Laura Gomez", 0L, 0L, false);
+
+        mvc.perform(post("/api/loans")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(loan)))
+                .andExpect(status().isCreated());
+        mvc.perform(post("/api/loans")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(loan)))
+                .andExpect(status().isBadRequest());
+
+        mvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("inventory_loans_register_total{")))
+                .andExpect(content().string(containsString("exception=\"IllegalStateException\"")))
+                .andExpect(content().string(containsString("inventory_service_seconds_bucket{")))
+                .andExpect(content().string(containsString("http_server_requests_seconds_bucket{")))
+                .andExpect(content().string(containsString("spring_data_repository_invocations_seconds_bucket{")))
+                .andExpect(content().string(containsString("hikaricp_connections_pending")));
+    }
+
     @Test
     void getLoansByDevice() throws Exception {
         Device d = deviceData.save(new Device(null, "WiFi Router", "Networking", "Server Room", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
@@ -130,4 +324,210 @@ class LoanControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(1)));
     }
-}
\ No newline at end of file
+
+    @Test
+    void loansByDeviceAreConditional() throws Exception {
+        Device d = deviceData.save(new Device(null, "WiFi Router", "Networking", "Server Room", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+
+        String etag = mvc.perform(get("/api/loans/device/" + d.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform(get("/api/loans/device/" + d.getId()).header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+
+        mvc.perform(post("/api/loans")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(new Loan(null, d.getId(), "Sandra Lee", 0L, 0L, false))))
+                .andExpect(status().isCreated());
+
+        mvc.perform(get("/api/loans/device/" + d.getId()).header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)));
+    }
+
+    @Test
+    void returnLoansInBatch() throws Exception {
+        Device d1 = deviceData.save(new Device(null, "Projector", "Multimedia", "Room 1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Device d2 = deviceData.save(new Device(null, "Speaker", "Multimedia", "Room 2", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Long first = registerLoan(d1.getId(), "Term End");
+        Long second = registerLoan(d2.getId(), "Term End");
+        Loan done = loanData.save(new Loan(null, d1.getId(), "Earlier", 0L, 1L, true));
+
+        mvc.perform(put("/api/loans/return")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(new LoanReturnRequest(List.of(first, done.getId(), 999L), null))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.returned", is(1)))
+                .andExpect(jsonPath("$.results[0].status", is("RETURNED")))
+                .andExpect(jsonPath("$.results[1].status", is("ALREADY_RETURNED")))
+                .andExpect(jsonPath("$.results[2].status", is("NOT_FOUND")));
+
+        mvc.perform(put("/api/loans/return")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(new LoanReturnRequest(null, "Term End"))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.returned", is(1)))
+                .andExpect(jsonPath("$.results[0].loanId", is(second.intValue())));
+
+        assertEquals(DeviceStatus.AVAILABLE, deviceData.findById(d1.getId()).orElseThrow().getStatus());
+        assertEquals(DeviceStatus.AVAILABLE, deviceData.findById(d2.getId()).orElseThrow().getStatus());
+        assertNull(deviceData.findById(d2.getId()).orElseThrow().getActiveLoanId());
+
+        mvc.perform(put("/api/loans/return")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private Long registerLoan(Long deviceId, String borrowedBy) throws Exception {
+        String body = mvc.perform(post("/api/loans")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(new Loan(null, deviceId, borrowedBy, 0L, 0L, false))))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return mapper.readValue(body, Loan.class).getId();
+    }
+
+    @Test
+    void overdueLoansAreListedOnceDue() throws Exception {
+        Device d = deviceData.save(new Device(null, "Graphing Calculator", "Classroom", "Room 9", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Loan loan = new Loan(null, d.getId(), "Late Larry", 0L, 0L, false, System.currentTimeMillis() + 300);
+        String created = mvc.perform(post("/api/loans")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(loan)))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        Long id = mapper.readValue(created, Loan.class).getId();
+
+        String overdue = "$[?(@.id == " + id + ")]";
+        mvc.perform(get("/api/loans/overdue"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath(overdue).isEmpty());
+
+        Thread.sleep(600);
+        mvc.perform(get("/api/loans/overdue"))
+                .andExpect(jsonPath(overdue + ".borrowedBy", hasItem("Late Larry")));
+
+        mvc.perform(put("/api/loans/" + id + "/return"))
+                .andExpect(status().isOk());
+        mvc.perform(get("/api/loans/overdue"))
+                .andExpect(jsonPath(overdue).isEmpty());
+    }
+
+    @Test
+    void summaryKeepsCountingArchivedLoans() throws Exception {
+        archiveData.deleteAllInBatch();
+        Device d = deviceData.save(new Device(null, "Document Camera", "Multimedia", "Room 4", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        loanData.save(new Loan(null, d.getId(), "Old Timer", 1000L, 2000L, true));
+        loanData.save(new Loan(null, d.getId(), "Older Timer", 500L, 900L, true));
+        loanData.save(new Loan(null, d.getId(), "Recent", 3000L, System.currentTimeMillis(), true));
+
+        assertEquals(2, archiver.archiveReturnedLoans());
+
+        mvc.perform(get("/api/devices/summary"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.activeLoans", is(0)))
+                .andExpect(jsonPath("$.returnedLoans", is(3)))
+                .andExpect(jsonPath("$.archivedLoans", is(2)));
+        archiveData.deleteAllInBatch();
+    }
+
+    @Test
+    void archivedLoansAreMergedOnRequest() throws Exception {
+        archiveData.deleteAllInBatch();
+        Device d = deviceData.save(new Device(null, "Overhead Projector", "Multimedia", "Room 3", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Loan old = loanData.save(new Loan(null, d.getId(), "Old Timer", 1000L, 2000L, true));
+        Loan recent = loanData.save(new Loan(null, d.getId(), "Recent", 3000L, System.currentTimeMillis(), true));
+        Loan active = loanData.save(new Loan(null, d.getId(), "Current", 4000L, 0L, false));
+
+        assertEquals(1, archiver.archiveReturnedLoans());
+        assertFalse(loanData.existsById(old.getId()));
+        assertTrue(loanData.existsById(recent.getId()));
+        assertTrue(loanData.existsById(active.getId()));
+
+        mvc.perform(get("/api/loans/device/" + d.getId()))
+                .andExpect(jsonPath("$", hasSize(2)));
+        mvc.perform(get("/api/loans/device/" + d.getId()).param("includeArchived", "true"))
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].borrowedBy", is("Old Timer")))
+                .andExpect(jsonPath("$[0].returned", is(true)));
+        mvc.perform(get("/api/loans/" + old.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.endDate", is(2000)));
+        mvc.perform(put("/api/loans/" + old.getId() + "/return"))
+                .andExpect(status().isConflict());
+
+        var pending = mvc.perform(get("/api/loans/export")
+                        .param("deviceId", d.getId().toString())
+                        .param("includeArchived", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mvc.perform(asyncDispatch(pending))
+                .andReturn().getResponse().getContentAsString();
+        assertEquals(3, body.trim().split("\n").length);
+        assertEquals(old.getId(), mapper.readValue(body.trim().split("\n")[0], Loan.class).getId());
+    }
+
+    @Test
+    void loansIncludeDeviceColumnsFromOneStatement() throws Exception {
+        Device d1 = deviceData.save(new Device(null, "Barcode Scanner", "IT Department", "Shelf A1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Device d2 = deviceData.save(new Device(null, "LCD Monitor", "Displays", "Shelf B1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        for (int i = 0; i < 20; i++) {
+            loanData.save(new Loan(null, (i % 2 == 0 ? d1 : d2).getId(), "Carlos Smith", System.currentTimeMillis(), 0L, false));
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            mvc.perform(get("/api/loans").param("include", "device"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", hasSize(20)))
+                    .andExpect(jsonPath("$[0].deviceName", is("Barcode Scanner")))
+                    .andExpect(jsonPath("$[1].deviceName", is("LCD Monitor")))
+                    .andExpect(jsonPath("$[1].deviceType", is("Displays")))
+                    .andExpect(jsonPath("$[1].deviceLocation", is("Shelf B1")));
+            assertEquals(1, statistics.getPrepareStatementCount());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+
+        mvc.perform(get("/api/loans/device/" + d2.getId()).param("include", "device"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(10)))
+                .andExpect(jsonPath("$[0].deviceName", is("LCD Monitor")));
+        mvc.perform(get("/api/loans").param("include", "device").param("size", "5"))
+                .andExpect(jsonPath("$", hasSize(5)))
+                .andExpect(header().exists("X-Next-Cursor"));
+    }
+
+    @Test
+    void deletingDeviceWithReturnedLoans_changesIncludeDeviceTags() throws Exception {
+        Device d = deviceData.save(new Device(null, "Old Scanner", "IT Department", "Shelf C1", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        loanData.save(new Loan(null, d.getId(), "Carlos Smith", 0L, 1L, true));
+
+        String listTag = mvc.perform(get("/api/loans").param("include", "device"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].deviceName", is("Old Scanner")))
+                .andReturn().getResponse().getHeader("ETag");
+        String deviceTag = mvc.perform(get("/api/loans/device/" + d.getId()).param("include", "device"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform(delete("/api/devices/" + d.getId()))
+                .andExpect(status().is2xxSuccessful());
+
+        String newListTag = mvc.perform(get("/api/loans").param("include", "device").header("If-None-Match", listTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].deviceName").doesNotExist())
+                .andReturn().getResponse().getHeader("ETag");
+        String newDeviceTag = mvc.perform(get("/api/loans/device/" + d.getId()).param("include", "device")
+                        .header("If-None-Match", deviceTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertFalse(listTag.equals(newListTag));
+        assertFalse(deviceTag.equals(newDeviceTag));
+    }
+}
@@ -0,0 +1,139 @@
+package edu.unac.service;
+
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.DeviceView;
+import edu.unac.domain.Loan;
+import edu.unac.repository.DeviceRepository;
+import edu.unac.repository.LoanRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static edu.unac.service.TestFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class DeviceReadModelTest {
+
+    @Autowired
+    private DeviceReadModel readModel;
+
+    @Autowired
+    private DeviceService deviceService;
+
+    @Autowired
+    private LoanService loanService;
+
+    @Autowired
+    private DeviceRepository deviceRepo;
+
+    @Autowired
+    private LoanRepository loanRepo;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private CollectionVersions versions;
+
+    @BeforeEach
+    void cleanDb() {
+        loanRepo.deleteAll();
+        deviceRepo.deleteAll();
+        // Other cached test contexts share the in-memory database behind this view's back
+        readModel.rebuild();
+    }
+
+    @Test
+    void followsDeviceWrites() {
+        Device device = deviceService.registerDevice(newDevice("Projector"));
+        Device direct = deviceRepo.save(newDevice("Laptop"));
+
+        assertEquals("Projector", view(device.getId()).getName());
+        assertEquals(DeviceStatus.AVAILABLE, view(direct.getId()).getStatus());
+
+        deviceService.updateDeviceStatus(device.getId(), DeviceStatus.MAINTENANCE);
+        assertEquals(DeviceStatus.MAINTENANCE, view(device.getId()).getStatus());
+        assertEquals(List.of(direct.getId()), ids(DeviceStatus.AVAILABLE));
+        assertEquals(List.of(device.getId()), ids(DeviceStatus.MAINTENANCE));
+
+        deviceService.deleteDevice(device.getId());
+        assertTrue(readModel.getDevice(device.getId()).isEmpty());
+        assertEquals(List.of(), ids(DeviceStatus.MAINTENANCE));
+    }
+
+    @Test
+    void deletedIds_areForgottenAfterRetention() {
+        Device device = deviceService.registerDevice(newDevice("Projector"));
+        deviceService.deleteDevice(device.getId());
+
+        long now = System.nanoTime();
+        readModel.pruneTombstones(now);
+        assertTrue(readModel.isTombstoned(device.getId()));
+
+        readModel.pruneTombstones(now + TimeUnit.MINUTES.toNanos(1));
+        assertFalse(readModel.isTombstoned(device.getId()));
+        assertTrue(readModel.getDevice(device.getId()).isEmpty());
+        assertEquals(0, readModel.verify());
+    }
+
+    @Test
+    void loanAndReturn_moveDeviceWithBorrower() {
+        Device device = deviceService.registerDevice(newDevice("Projector"));
+
+        Loan loan = loanService.registerLoan(newLoan(device.getId(), "Anna Brown"));
+        DeviceView loaned = view(device.getId());
+        assertEquals(DeviceStatus.LOANED, loaned.getStatus());
+        assertEquals(loan.getId(), loaned.getActiveLoanId());
+        assertEquals("Anna Brown", loaned.getActiveBorrower());
+        assertEquals(List.of(), ids(DeviceStatus.AVAILABLE));
+
+        loanService.markAsReturned(loan.getId());
+        DeviceView returned = view(device.getId());
+        assertEquals(DeviceStatus.AVAILABLE, returned.getStatus());
+        assertNull(returned.getActiveLoanId());
+        assertNull(returned.getActiveBorrower());
+        assertEquals(List.of(device.getId()), ids(DeviceStatus.AVAILABLE));
+    }
+
+    @Test
+    void verify_repairsWritesTheViewMissed() {
+        Device stale = deviceService.registerDevice(newDevice("Projector"));
+        Device kept = deviceService.registerDevice(newDevice("Laptop"));
+        assertEquals(0, readModel.verify());
+
+        String listTag = versions.devicesTag();
+        String staleTag = versions.deviceTag(stale.getId());
+        String keptTag = versions.deviceTag(kept.getId());
+
+        jdbc.update("UPDATE device SET name = 'Renamed', version = version + 1 WHERE id = ?", stale.getId());
+        jdbc.update("INSERT INTO device (id, name, type, location, status, added_date, version) "
+                + "VALUES (?, 'Tablet', 'Computers', 'Lab', ?, 0, 0)", kept.getId() + 1_000_000_000L,
+                DeviceStatus.AVAILABLE.ordinal());
+
+        assertEquals(2, readModel.verify());
+        assertEquals("Renamed", view(stale.getId()).getName());
+        assertEquals("Tablet", view(kept.getId() + 1_000_000_000L).getName());
+        assertEquals("Laptop", view(kept.getId()).getName());
+        assertNotEquals(listTag, versions.devicesTag());
+        assertNotEquals(staleTag, versions.deviceTag(stale.getId()));
+        assertEquals(keptTag, versions.deviceTag(kept.getId()));
+        assertEquals(0, readModel.verify());
+    }
+
+    private DeviceView view(Long id) {
+        return readModel.getDevice(id).orElseThrow();
+    }
+
+    private List<Long> ids(DeviceStatus status) {
+        return readModel.getDevicePage(null, 100, status, null, null).getItems().stream()
+                .map(DeviceView::getId)
+                .toList();
+    }
+}
@@ -0,0 +1,135 @@
+package edu.unac.service;
+
+import edu.unac.domain.CursorPage;
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceChangedEvent;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.Loan;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.repository.DeviceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceSearchIndexTest {
+    private DeviceRepository deviceRepository;
+    private DeviceSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        deviceRepository = mock(DeviceRepository.class);
+        when(deviceRepository.streamForIndex()).thenReturn(Stream.of(
+                device(1L, "Epson Projector", "Multimedia", "Building B Room 2", DeviceStatus.AVAILABLE),
+                device(2L, "Dell Laptop", "Computers", "Building A", DeviceStatus.AVAILABLE),
+                device(3L, "BenQ Projector", "Multimedia", "Building A", DeviceStatus.MAINTENANCE),
+                device(4L, "Projector Screen", "Accessories", "Building B", DeviceStatus.AVAILABLE)));
+        index = new DeviceSearchIndex(deviceRepository, mock(PlatformTransactionManager.class));
+        index.rebuild();
+    }
+
+    @Test
+    void matchesSubstringsAndWordPrefixes() {
+        assertEquals(List.of(1L, 3L, 4L), ids("jector"));
+        assertEquals(List.of(1L, 3L, 4L), ids("projector building b"));
+        assertEquals(List.of(3L), ids("jector multi a"));
+        assertEquals(List.of(1L, 2L, 3L, 4L), ids("BUILD"));
+        assertEquals(List.of(2L), ids("de la"));
+        assertEquals(List.of(), ids("ector screenshot"));
+        assertEquals(List.of(), ids("rojector b x"));
+    }
+
+    @Test
+    void filtersByStatus() {
+        assertEquals(List.of(3L), index.search("projector", DeviceStatus.MAINTENANCE, null, 10).getItems());
+        assertEquals(List.of(1L, 4L), index.search("projector", DeviceStatus.AVAILABLE, null, 10).getItems());
+    }
+
+    @Test
+    void pagesWithCursor() {
+        CursorPage<Long> first = index.search("projector", null, null, 2);
+        assertEquals(List.of(1L, 3L), first.getItems());
+        assertNotNull(first.getNextCursor());
+
+        CursorPage<Long> second = index.search("projector", null, first.getNextCursor(), 2);
+        assertEquals(List.of(4L), second.getItems());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    void followsDeviceAndLoanEvents() {
+        Device added = device(9L, "Sony Projector", "Multimedia", "Annex", DeviceStatus.AVAILABLE);
+        index.onDeviceChanged(new DeviceChangedEvent(DeviceChangedEvent.Type.REGISTERED, 9L, added));
+        index.onDeviceChanged(new DeviceChangedEvent(DeviceChangedEvent.Type.DELETED, 4L, null));
+        assertEquals(List.of(1L, 3L, 9L), ids("projector"));
+
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, new Loan(5L, 9L, "Ana", 0L, 0L, false)));
+        assertEquals(List.of(9L), index.search("projector", DeviceStatus.LOANED, null, 10).getItems());
+
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, new Loan(5L, 9L, "Ana", 0L, 1L, true)));
+        assertEquals(List.of(1L, 9L), index.search("projector", DeviceStatus.AVAILABLE, null, 10).getItems());
+
+        added.setStatus(DeviceStatus.RETIRED);
+        index.onDeviceChanged(new DeviceChangedEvent(DeviceChangedEvent.Type.UPDATED, 9L, added));
+        assertEquals(List.of(9L), index.search("sony", DeviceStatus.RETIRED, null, 10).getItems());
+        verify(deviceRepository, times(1)).streamForIndex();
+    }
+
+    @Test
+    void loanEventsOutOfOrderLeaveTheLastState() {
+        // Return of loan 5 reaches the index before its registration
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, new Loan(5L, 1L, "Ana", 0L, 1L, true)));
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, new Loan(5L, 1L, "Ana", 0L, 0L, false)));
+        assertEquals(List.of(1L, 4L), index.search("projector", DeviceStatus.AVAILABLE, null, 10).getItems());
+
+        // Loan 7 follows loan 6 on the same device, 6's return arrives last
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, new Loan(6L, 4L, "Ana", 0L, 0L, false)));
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, new Loan(7L, 4L, "Luis", 0L, 0L, false)));
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, new Loan(6L, 4L, "Ana", 0L, 1L, true)));
+        assertEquals(List.of(4L), index.search("projector", DeviceStatus.LOANED, null, 10).getItems());
+
+        index.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, new Loan(7L, 4L, "Luis", 0L, 1L, true)));
+        assertEquals(List.of(1L, 4L), index.search("projector", DeviceStatus.AVAILABLE, null, 10).getItems());
+    }
+
+    @Test
+    void compactsDeletedDocumentsWithoutMovingCursors() {
+        for (long id = 100; id < 3100; id++) {
+            Device device = device(id, "Bulk Item", "Spare", "Store", DeviceStatus.AVAILABLE);
+            index.onDeviceChanged(new DeviceChangedEvent(DeviceChangedEvent.Type.REGISTERED, id, device));
+        }
+        CursorPage<Long> first = index.search("bulk", null, null, 10);
+        assertEquals(100L, first.getItems().get(0));
+
+        for (long id = 110; id < 2110; id++) {
+            index.onDeviceChanged(new DeviceChangedEvent(DeviceChangedEvent.Type.DELETED, id, null));
+        }
+
+        // Compacted once half of the 3004 documents were dead, the rest of the deletes came after
+        assertEquals(1502, index.documentCount());
+        CursorPage<Long> second = index.search("bulk", null, first.getNextCursor(), 10);
+        assertEquals(2110L, second.getItems().get(0));
+        assertEquals(List.of(1L, 3L, 4L), ids("projector"));
+        assertEquals(List.of(), index.search("bulk", null, null, 10).getItems().stream()
+                .filter(id -> id >= 110 && id < 2110).toList());
+    }
+
+    @Test
+    void rejectsQueriesWithoutWords() {
+        assertThrows(IllegalArgumentException.class, () -> index.search(" -- ", null, null, 10));
+    }
+
+    private List<Long> ids(String query) {
+        return index.search(query, null, null, 10).getItems();
+    }
+
+    private static Device device(Long id, String name, String type, String location, DeviceStatus status) {
+        return new Device(id, name, type, location, status, 0L);
+    }
+}
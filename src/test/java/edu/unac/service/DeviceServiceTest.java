@@ -1,13 +1,26 @@
 package edu.unac.service;
 
+import edu.unac.domain.CursorPage;
 import edu.unac.domain.Device;
+import edu.unac.domain.DeviceChangedEvent;
+import edu.unac.domain.DeviceImportResult;
 import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.DeviceView;
+import edu.unac.domain.InventorySummary;
+import edu.unac.repository.ArchivedLoanRepository;
 import edu.unac.repository.DeviceRepository;
+import edu.unac.repository.LoanRepository;
 import net.bytebuddy.implementation.bytecode.Division;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,12 +30,24 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class DeviceServiceTest {
     private DeviceRepository deviceRepository;
+    private LoanRepository loanRepository;
+    private ArchivedLoanRepository archivedLoanRepository;
+    private DeviceSearchIndex searchIndex;
+    private DeviceReadModel readModel;
+    private ApplicationEventPublisher eventPublisher;
     private DeviceService deviceService;
 
     @BeforeEach
     void setUp() {
         deviceRepository = mock(DeviceRepository.class);
-        deviceService = new DeviceService(deviceRepository);
+        loanRepository = mock(LoanRepository.class);
+        archivedLoanRepository = mock(ArchivedLoanRepository.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        searchIndex = mock(DeviceSearchIndex.class);
+        readModel = mock(DeviceReadModel.class);
+        OptimisticRetry retry = new OptimisticRetry(mock(PlatformTransactionManager.class), 3,
+                Duration.ZERO, Duration.ZERO, new SimpleMeterRegistry());
+        deviceService = new DeviceService(deviceRepository, loanRepository, archivedLoanRepository, searchIndex, eventPublisher, retry, readModel);
     }
 
     @Test
@@ -51,6 +76,7 @@ class DeviceServiceTest {
         assertEquals(DeviceStatus.AVAILABLE, result.getStatus());
         assertNotNull(result.getAddedDate());
         verify(deviceRepository).save(any(Device.class));
+        verify(eventPublisher).publishEvent(new DeviceChangedEvent(DeviceChangedEvent.Type.REGISTERED, 1L, result));
     }
 
     @Test
@@ -62,17 +88,73 @@ class DeviceServiceTest {
                 deviceService.registerDevice(input));
         assertEquals("Device name must be at least 3 characters long", exception.getMessage());
         verify(deviceRepository, never()).save(any());
+        verifyNoInteractions(eventPublisher);
     }
 
     @Test
-    void getAllDevices_shouldReturnList() {
-        List<Device> devices = Arrays.asList(new Device(), new Device());
-        when(deviceRepository.findAll()).thenReturn(devices);
+    void importDevices_shouldSaveInBatchesAndReportInvalidRows() {
+        List<Device> rows = Arrays.asList(named("Laptop"), named("AB"), named("Tablet"), named("Router"), named("Camera"));
 
-        List<Device> result = deviceService.getAllDevices();
+        DeviceImportResult result = deviceService.importDevices(rows.iterator(), 2);
 
-        assertEquals(2, result.size());
-        verify(deviceRepository).findAll();
+        assertEquals(4, result.getImported());
+        assertEquals(1, result.getErrors().size());
+        assertEquals(1, result.getErrors().get(0).getRow());
+        assertEquals("Device name must be at least 3 characters long", result.getErrors().get(0).getMessage());
+        verify(deviceRepository, times(2)).saveAll(anyList());
+        rows.stream().filter(d -> d.getName().length() >= 3)
+                .forEach(d -> assertEquals(DeviceStatus.AVAILABLE, d.getStatus()));
+    }
+
+    @Test
+    void importDevices_malformedRow_shouldStopReading() {
+        Iterator<Device> rows = new Iterator<>() {
+            private int read;
+
+            @Override
+            public boolean hasNext() {
+                if (read == 1) {
+                    throw new IllegalArgumentException("Malformed row: broken");
+                }
+                return true;
+            }
+
+            @Override
+            public Device next() {
+                read++;
+                return named("Laptop");
+            }
+        };
+
+        DeviceImportResult result = deviceService.importDevices(rows, 10);
+
+        assertEquals(1, result.getImported());
+        assertEquals(1, result.getErrors().size());
+        assertEquals(1, result.getErrors().get(0).getRow());
+        verify(deviceRepository).saveAll(anyList());
+    }
+
+    @Test
+    void getSummary_shouldMapGroupedCounts() {
+        when(deviceRepository.countByStatus()).thenReturn(List.of(
+                new Object[]{DeviceStatus.AVAILABLE, 3L}, new Object[]{DeviceStatus.LOANED, 2L}));
+        when(deviceRepository.countByType()).thenReturn(List.<Object[]>of(new Object[]{"Multimedia", 5L}));
+        when(deviceRepository.countByLocation()).thenReturn(List.of(
+                new Object[]{"Room 101", 4L}, new Object[]{null, 1L}));
+        when(loanRepository.countByReturned()).thenReturn(List.of(
+                new Object[]{false, 2L}, new Object[]{true, 7L}));
+        when(archivedLoanRepository.count()).thenReturn(3L);
+
+        InventorySummary summary = deviceService.getSummary();
+
+        assertEquals(3L, summary.getDevicesByStatus().get(DeviceStatus.AVAILABLE));
+        assertEquals(2L, summary.getDevicesByStatus().get(DeviceStatus.LOANED));
+        assertEquals(5L, summary.getDevicesByType().get("Multimedia"));
+        assertEquals(1L, summary.getDevicesByLocation().get(""));
+        assertEquals(2L, summary.getActiveLoans());
+        assertEquals(10L, summary.getReturnedLoans());
+        assertEquals(3L, summary.getArchivedLoans());
+        verify(deviceRepository, never()).findAll();
     }
 
     @Test
@@ -93,7 +175,7 @@ class DeviceServiceTest {
         device.setId(1L);
         device.setStatus(DeviceStatus.AVAILABLE);
 
-        when(deviceRepository.findById(1L)).thenReturn(Optional.of(device));
+        when(deviceRepository.findCurrent(1L)).thenReturn(Optional.of(device));
         when(deviceRepository.save(any(Device.class))).thenReturn(device);
 
         Device updated = deviceService.updateDeviceStatus(1L, DeviceStatus.MAINTENANCE);
@@ -102,9 +184,35 @@ class DeviceServiceTest {
         verify(deviceRepository).save(device);
     }
 
+    @Test
+    void updateDeviceStatus_versionConflict_shouldRetryOnFreshRead() {
+        Device stale = new Device(1L, "Projector", "Multimedia", "Room 101", DeviceStatus.AVAILABLE, 0L);
+        Device current = new Device(1L, "Projector", "Multimedia", "Room 101", DeviceStatus.LOANED, 0L, 7L);
+        when(deviceRepository.findCurrent(1L)).thenReturn(Optional.of(stale), Optional.of(current));
+        when(deviceRepository.save(stale)).thenThrow(new OptimisticLockingFailureException("stale"));
+        when(deviceRepository.save(current)).thenReturn(current);
+
+        Device updated = deviceService.updateDeviceStatus(1L, DeviceStatus.MAINTENANCE);
+
+        assertEquals(DeviceStatus.MAINTENANCE, updated.getStatus());
+        assertEquals(7L, updated.getActiveLoanId());
+        verify(eventPublisher, times(1)).publishEvent(any(DeviceChangedEvent.class));
+    }
+
+    @Test
+    void updateDeviceStatus_conflictsExhaustRetries_shouldRethrow() {
+        when(deviceRepository.findCurrent(1L)).thenAnswer(invocation ->
+                Optional.of(new Device(1L, "Projector", "Multimedia", "Room 101", DeviceStatus.AVAILABLE, 0L)));
+        when(deviceRepository.save(any(Device.class))).thenThrow(new OptimisticLockingFailureException("stale"));
+
+        assertThrows(OptimisticLockingFailureException.class, () ->
+                deviceService.updateDeviceStatus(1L, DeviceStatus.MAINTENANCE));
+        verify(deviceRepository, times(3)).save(any(Device.class));
+    }
+
     @Test
     void updateDeviceStatus_deviceNotFound_shouldThrowException() {
-        when(deviceRepository.findById(99L)).thenReturn(Optional.empty());
+        when(deviceRepository.findCurrent(99L)).thenReturn(Optional.empty());
 
         Exception exception = assertThrows(IllegalArgumentException.class, () ->
                 deviceService.updateDeviceStatus(99L, DeviceStatus.MAINTENANCE));
@@ -136,4 +244,29 @@ class DeviceServiceTest {
 
         verify(deviceRepository).deleteById(1L);
     }
-}
\ No newline at end of file
+
+    @Test
+    void searchDevices_keepsIndexOrderAndDropsStaleRows() {
+        DeviceView first = new DeviceView(8L, "Projector A", null, null, DeviceStatus.AVAILABLE, 0L, null, 0L, null);
+        DeviceView second = new DeviceView(3L, "Projector B", null, null, DeviceStatus.AVAILABLE, 0L, null, 0L, null);
+        DeviceView loaned = new DeviceView(4L, "Projector C", null, null, DeviceStatus.LOANED, 0L, 9L, 1L, "Ana");
+
+        when(searchIndex.search("projector", DeviceStatus.AVAILABLE, null, 4))
+                .thenReturn(new CursorPage<>(List.of(8L, 5L, 4L, 3L), 11L));
+        when(readModel.getDevice(8L)).thenReturn(Optional.of(first));
+        when(readModel.getDevice(5L)).thenReturn(Optional.empty());
+        when(readModel.getDevice(4L)).thenReturn(Optional.of(loaned));
+        when(readModel.getDevice(3L)).thenReturn(Optional.of(second));
+
+        CursorPage<DeviceView> page = deviceService.searchDevices("projector", DeviceStatus.AVAILABLE, null, 4);
+
+        assertEquals(List.of(first, second), page.getItems());
+        assertEquals(11L, page.getNextCursor());
+    }
+
+    private static Device named(String name) {
+        Device device = new Device();
+        device.setName(name);
+        return device;
+    }
+}
@@ -0,0 +1,197 @@
+package edu.unac.service;
+
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.Loan;
+import edu.unac.repository.ArchivedLoanRepository;
+import edu.unac.repository.DeviceRepository;
+import edu.unac.repository.LoanRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.unac.service.TestFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class LoanCommitPipelineTest {
+
+    @Autowired
+    private LoanService loanService;
+
+    @Autowired
+    private LoanRepository loanRepo;
+
+    @Autowired
+    private ArchivedLoanRepository archiveRepo;
+
+    @Autowired
+    private DeviceRepository deviceRepo;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private LoanCommitPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        loanRepo.deleteAll();
+        deviceRepo.deleteAll();
+        // A long window, so writes submitted together land in the same batch
+        pipeline = new LoanCommitPipeline(loanService, loanRepo, archiveRepo, deviceRepo, eventPublisher,
+                transactionManager, registry, true, Duration.ofMillis(200), 256);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        pipeline.shutdown();
+    }
+
+    @Test
+    void concurrentRegistrations_oneWinnerPerDevice() throws Exception {
+        List<Long> deviceIds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            deviceIds.add(deviceRepo.save(newDevice("Laptop " + i)).getId());
+        }
+        AtomicInteger won = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        runConcurrently(64, 64, i -> {
+            try {
+                pipeline.registerLoan(newLoan(deviceIds.get(i % deviceIds.size()), "Borrower " + i));
+                won.incrementAndGet();
+            } catch (IllegalStateException e) {
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertEquals(10, won.get());
+        assertEquals(54, rejected.get());
+        for (Long deviceId : deviceIds) {
+            List<Loan> loans = loanRepo.findByDeviceId(deviceId);
+            assertEquals(1, loans.size());
+            Device device = deviceRepo.findCurrent(deviceId).orElseThrow();
+            assertEquals(DeviceStatus.LOANED, device.getStatus());
+            assertEquals(loans.get(0).getId(), device.getActiveLoanId());
+        }
+        assertTrue(registry.summary("inventory.loans.group_commit.batch_size").count() < 64);
+    }
+
+    @Test
+    void batch_givesEachCallerItsOwnOutcome() throws Exception {
+        Device loaned = deviceRepo.save(newDevice("Projector"));
+        Device free = deviceRepo.save(newDevice("Tablet"));
+        Loan active = loanService.registerLoan(newLoan(loaned.getId(), "Anna Brown"));
+        Loan pastDue = newLoan(free.getId(), "Late");
+        pastDue.setDueDate(System.currentTimeMillis() - 1000);
+
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            Future<Loan> returned = pool.submit(() -> pipeline.markAsReturned(active.getId()));
+            Future<Loan> returnedTwice = pool.submit(() -> pipeline.markAsReturned(active.getId()));
+            Future<Loan> unknown = pool.submit(() -> pipeline.markAsReturned(Long.MAX_VALUE));
+            Future<Loan> missingDevice = pool.submit(() -> pipeline.registerLoan(newLoan(Long.MAX_VALUE, "Ghost")));
+            Future<Loan> dueInPast = pool.submit(() -> pipeline.registerLoan(pastDue));
+            Future<Loan> registered = pool.submit(() -> pipeline.registerLoan(newLoan(free.getId(), "Carl Diaz")));
+
+            List<Object> outcomes = new ArrayList<>();
+            for (Future<Loan> returnCall : List.of(returned, returnedTwice)) {
+                outcomes.add(outcome(returnCall));
+            }
+            assertTrue(outcomes.contains(IllegalStateException.class));
+            assertTrue(outcomes.stream().anyMatch(o -> o instanceof Loan loan && loan.isReturned()));
+            assertEquals(IllegalArgumentException.class, outcome(unknown));
+            assertEquals(IllegalArgumentException.class, outcome(missingDevice));
+            assertEquals(IllegalArgumentException.class, outcome(dueInPast));
+            assertEquals("Carl Diaz", ((Loan) outcome(registered)).getBorrowedBy());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(0L, pastDue.getStartDate());
+        Device released = deviceRepo.findCurrent(loaned.getId()).orElseThrow();
+        assertEquals(DeviceStatus.AVAILABLE, released.getStatus());
+        assertNull(released.getActiveLoanId());
+        assertTrue(loanRepo.findById(active.getId()).orElseThrow().isReturned());
+        assertEquals(DeviceStatus.LOANED, deviceRepo.findCurrent(free.getId()).orElseThrow().getStatus());
+        assertEquals(1, loanRepo.findByDeviceId(free.getId()).size());
+    }
+
+    @Test
+    void onQueued_runsOnlyForQueuedWrites() throws InterruptedException {
+        Long deviceId = deviceRepo.save(newDevice("Webcam")).getId();
+        AtomicInteger queued = new AtomicInteger();
+
+        Loan loan = pipeline.registerLoan(newLoan(deviceId, "Anna Brown"), queued::incrementAndGet);
+        assertEquals(1, queued.get());
+
+        // Stopped, the write commits on the caller's thread and keeps what it holds
+        pipeline.shutdown();
+        pipeline.markAsReturned(loan.getId(), queued::incrementAndGet);
+        assertEquals(1, queued.get());
+        assertTrue(loanRepo.findById(loan.getId()).orElseThrow().isReturned());
+    }
+
+    @Test
+    void batchedWrites_recordLoanServiceMeters() throws InterruptedException {
+        // Against the context's registry, where LoanService's aspects record
+        pipeline.shutdown();
+        pipeline = new LoanCommitPipeline(loanService, loanRepo, archiveRepo, deviceRepo, eventPublisher,
+                transactionManager, meterRegistry, true, Duration.ofMillis(10), 256);
+        Long direct = deviceRepo.save(newDevice("Camera")).getId();
+        Long batched = deviceRepo.save(newDevice("Tripod")).getId();
+        double registered = count("inventory.loans.register", "success", "none");
+        double taken = count("inventory.loans.register", "failure", "IllegalStateException");
+        double returned = count("inventory.loans.return", "success", "none");
+        long timed = meterRegistry.find("inventory.service").tag("method", "registerLoan").timers().stream()
+                .mapToLong(timer -> timer.count()).sum();
+
+        loanService.registerLoan(newLoan(direct, "Anna Brown"));
+        Loan loan = pipeline.registerLoan(newLoan(batched, "Carl Diaz"));
+        assertThrows(IllegalStateException.class, () -> pipeline.registerLoan(newLoan(batched, "Dana Evans")));
+        pipeline.markAsReturned(loan.getId());
+
+        // One meter per tag set, the pipeline's writes land on the aspect's
+        assertEquals(1, meterRegistry.find("inventory.loans.register").tag("result", "success").counters().size());
+        assertEquals(registered + 2, count("inventory.loans.register", "success", "none"));
+        assertEquals(taken + 1, count("inventory.loans.register", "failure", "IllegalStateException"));
+        assertEquals(returned + 1, count("inventory.loans.return", "success", "none"));
+        assertEquals(timed + 3, meterRegistry.find("inventory.service").tag("method", "registerLoan").timers().stream()
+                .mapToLong(timer -> timer.count()).sum());
+    }
+
+    private double count(String name, String result, String exception) {
+        Counter counter = meterRegistry.find(name).tag("result", result).tag("exception", exception).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private static Object outcome(Future<Loan> call) throws InterruptedException {
+        try {
+            return call.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause().getClass();
+        } catch (TimeoutException e) {
+            throw new AssertionError("Write did not complete", e);
+        }
+    }
+}
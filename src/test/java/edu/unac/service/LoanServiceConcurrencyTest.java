@@ -0,0 +1,154 @@
+package edu.unac.service;
+
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.Loan;
+import edu.unac.repository.DeviceRepository;
+import edu.unac.repository.LoanRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static edu.unac.service.TestFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class LoanServiceConcurrencyTest {
+
+    private static final int THREADS = 32;
+
+    @Autowired
+    private LoanService loanService;
+
+    @Autowired
+    private DeviceService deviceService;
+
+    @Autowired
+    private DeviceRepository deviceRepo;
+
+    @Autowired
+    private LoanRepository loanRepo;
+
+    @BeforeEach
+    void cleanDb() {
+        loanRepo.deleteAll();
+        deviceRepo.deleteAll();
+    }
+
+    @Test
+    void singleDevice_onlyOneLoanWins() throws Exception {
+        Device device = deviceRepo.save(new Device(null, "Projector", "Multimedia", "Room 101", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        AtomicInteger won = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        runConcurrently(THREADS, THREADS * 8, i -> {
+            try {
+                loanService.registerLoan(newLoan(device.getId(), "Borrower " + i));
+                won.incrementAndGet();
+            } catch (IllegalStateException e) {
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertEquals(1, won.get());
+        assertEquals(THREADS * 8 - 1, rejected.get());
+        assertEquals(1, loanRepo.findByDeviceId(device.getId()).size());
+        assertEquals(DeviceStatus.LOANED, deviceRepo.findById(device.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void manyDevices_loanAndReturnCycles_neverDoubleLoan() throws Exception {
+        List<Long> deviceIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            deviceIds.add(deviceRepo.save(new Device(null, "Laptop " + i, "Computers", "Lab", DeviceStatus.AVAILABLE, System.currentTimeMillis())).getId());
+        }
+        AtomicInteger returns = new AtomicInteger();
+
+        runConcurrently(THREADS, THREADS * 50, i -> {
+            Long deviceId = deviceIds.get(ThreadLocalRandom.current().nextInt(deviceIds.size()));
+            try {
+                Loan loan = loanService.registerLoan(newLoan(deviceId, "Borrower " + i));
+                // Every other winner hands the device back so the same rows keep flipping
+                if (i % 2 == 0) {
+                    loanService.markAsReturned(loan.getId());
+                    returns.incrementAndGet();
+                }
+            } catch (IllegalStateException e) {
+                // Lost the race, expected under contention
+            }
+        });
+
+        Map<Long, List<Long>> activeByDevice = loanRepo.findAll().stream()
+                .filter(loan -> !loan.isReturned())
+                .collect(Collectors.groupingBy(Loan::getDeviceId, Collectors.mapping(Loan::getId, Collectors.toList())));
+
+        activeByDevice.values().forEach(active -> assertEquals(1, active.size()));
+        for (Long deviceId : deviceIds) {
+            Device device = deviceRepo.findById(deviceId).orElseThrow();
+            List<Long> active = activeByDevice.get(deviceId);
+            assertEquals(active != null ? DeviceStatus.LOANED : DeviceStatus.AVAILABLE, device.getStatus());
+            assertEquals(active != null ? active.get(0) : null, device.getActiveLoanId());
+        }
+        assertTrue(returns.get() > 0);
+    }
+
+    @Test
+    void concurrentReturns_onlyOneSucceeds() throws Exception {
+        Device device = deviceRepo.save(new Device(null, "Camera", "Multimedia", "Media Closet", DeviceStatus.AVAILABLE, System.currentTimeMillis()));
+        Loan loan = loanService.registerLoan(newLoan(device.getId(), "Anna Brown"));
+        AtomicInteger returned = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+
+        runConcurrently(THREADS, THREADS * 4, i -> {
+            try {
+                loanService.markAsReturned(loan.getId());
+                returned.incrementAndGet();
+            } catch (IllegalStateException e) {
+                conflicts.incrementAndGet();
+            }
+        });
+
+        assertEquals(1, returned.get());
+        assertEquals(THREADS * 4 - 1, conflicts.get());
+        assertEquals(DeviceStatus.AVAILABLE, deviceRepo.findById(device.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void statusUpdateRacingLoan_keepsActiveLoan() throws Exception {
+        List<Long> deviceIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            deviceIds.add(deviceRepo.save(new Device(null, "Tablet " + i, "Mobile", "Lab", DeviceStatus.AVAILABLE, System.currentTimeMillis())).getId());
+        }
+
+        // Each device gets one loan and one status change at the same moment
+        runConcurrently(THREADS, deviceIds.size() * 2, i -> {
+            Long deviceId = deviceIds.get(i / 2);
+            try {
+                if (i % 2 == 0) {
+                    loanService.registerLoan(newLoan(deviceId, "Borrower " + i));
+                } else {
+                    deviceService.updateDeviceStatus(deviceId, DeviceStatus.MAINTENANCE);
+                }
+            } catch (IllegalStateException e) {
+                // The status change came first, the device was not available
+            }
+        });
+
+        Map<Long, Long> activeByDevice = loanRepo.findAll().stream()
+                .filter(loan -> !loan.isReturned())
+                .collect(Collectors.toMap(Loan::getDeviceId, Loan::getId));
+        for (Long deviceId : deviceIds) {
+            Device device = deviceRepo.findCurrent(deviceId).orElseThrow();
+            assertEquals(DeviceStatus.MAINTENANCE, device.getStatus());
+            assertEquals(activeByDevice.get(deviceId), device.getActiveLoanId());
+        }
+    }
+}
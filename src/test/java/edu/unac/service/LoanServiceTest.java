@@ -1,16 +1,25 @@
 package edu.unac.service;
 
+import edu.unac.domain.CursorPage;
 import edu.unac.domain.Device;
 import edu.unac.domain.DeviceStatus;
 import edu.unac.domain.Loan;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.domain.LoanReturnRequest;
+import edu.unac.domain.LoanReturnResult;
+import edu.unac.repository.ArchivedLoanRepository;
 import edu.unac.repository.DeviceRepository;
 import edu.unac.repository.LoanRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.*;
 
@@ -20,13 +29,17 @@ class LoanServiceTest {
 
     private LoanRepository loanRepo;
     private DeviceRepository deviceRepo;
+    private ArchivedLoanRepository archiveRepo;
+    private ApplicationEventPublisher eventPublisher;
     private LoanService service;
 
     @BeforeEach
     void setUp() {
         loanRepo = mock(LoanRepository.class);
         deviceRepo = mock(DeviceRepository.class);
-        service = new LoanService(loanRepo, deviceRepo);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        archiveRepo = mock(ArchivedLoanRepository.class);
+        service = new LoanService(loanRepo, deviceRepo, archiveRepo, eventPublisher);
     }
 
     @Test
@@ -34,21 +47,22 @@ class LoanServiceTest {
         Loan loan = new Loan();
         loan.setDeviceId(1L);
 
-        Device device = new Device();
-        device.setId(1L);
-        device.setStatus(DeviceStatus.AVAILABLE);
-
-        when(deviceRepo.findById(1L)).thenReturn(Optional.of(device));
-        when(deviceRepo.save(any(Device.class))).thenReturn(device);
-        when(loanRepo.save(any(Loan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(deviceRepo.compareAndSetStatus(1L, DeviceStatus.AVAILABLE, DeviceStatus.LOANED)).thenReturn(1);
+        when(loanRepo.save(any(Loan.class))).thenAnswer(invocation -> {
+            Loan l = invocation.getArgument(0);
+            l.setId(9L);
+            return l;
+        });
 
         Loan result = service.registerLoan(loan);
 
         assertNotNull(result.getStartDate());
         assertFalse(result.isReturned());
-        assertEquals(DeviceStatus.LOANED, device.getStatus());
+        verify(deviceRepo).compareAndSetStatus(1L, DeviceStatus.AVAILABLE, DeviceStatus.LOANED);
         verify(loanRepo).save(loan);
-        verify(deviceRepo).save(device);
+        verify(deviceRepo).setActiveLoanId(1L, 9L);
+        verify(deviceRepo, never()).save(any());
+        verify(eventPublisher).publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, result));
     }
 
     @Test
@@ -56,23 +70,31 @@ class LoanServiceTest {
         Loan loan = new Loan();
         loan.setDeviceId(1L);
 
-        when(deviceRepo.findById(1L)).thenReturn(Optional.empty());
+        when(deviceRepo.compareAndSetStatus(1L, DeviceStatus.AVAILABLE, DeviceStatus.LOANED)).thenReturn(0);
+        when(deviceRepo.existsById(1L)).thenReturn(false);
 
         Exception ex = assertThrows(IllegalArgumentException.class, () -> service.registerLoan(loan));
         assertEquals("Device not found", ex.getMessage());
         verify(loanRepo, never()).save(any());
     }
 
+    @Test
+    void createLoan_withoutDevice() {
+        Loan loan = new Loan();
+
+        Exception ex = assertThrows(IllegalArgumentException.class, () -> service.registerLoan(loan));
+        assertEquals("Device not found", ex.getMessage());
+        verify(deviceRepo, never()).compareAndSetStatus(any(), any(), any());
+        verify(loanRepo, never()).save(any());
+    }
+
     @Test
     void createLoan_deviceBusy() {
         Loan loan = new Loan();
         loan.setDeviceId(1L);
 
-        Device device = new Device();
-        device.setId(1L);
-        device.setStatus(DeviceStatus.LOANED);
-
-        when(deviceRepo.findById(1L)).thenReturn(Optional.of(device));
+        when(deviceRepo.compareAndSetStatus(1L, DeviceStatus.AVAILABLE, DeviceStatus.LOANED)).thenReturn(0);
+        when(deviceRepo.existsById(1L)).thenReturn(true);
 
         Exception ex = assertThrows(IllegalStateException.class, () -> service.registerLoan(loan));
         assertEquals("Device is not available for loan", ex.getMessage());
@@ -92,6 +114,74 @@ class LoanServiceTest {
         verify(loanRepo).findAll();
     }
 
+    @Test
+    void getLoanPage_withFilters() {
+        Loan loan1 = new Loan();
+        loan1.setId(7L);
+        Loan loan2 = new Loan();
+        loan2.setId(8L);
+
+        when(loanRepo.findPage(eq(0L), eq(false), eq(3L), any())).thenReturn(Arrays.asList(loan1, loan2));
+
+        CursorPage<Loan> page = service.getLoanPage(null, 1, false, 3L);
+
+        assertEquals(1, page.getItems().size());
+        assertEquals(7L, page.getNextCursor());
+    }
+
+    @Test
+    void exportLoans_shouldHandEveryRowToSink() {
+        Loan loan1 = new Loan();
+        Loan loan2 = new Loan();
+
+        when(loanRepo.streamForExport(0L, 100L, 3L)).thenReturn(Stream.of(loan1, loan2));
+
+        List<Loan> exported = new ArrayList<>();
+        service.exportLoans(0L, 100L, 3L, false, exported::add);
+
+        assertEquals(List.of(loan1, loan2), exported);
+        verify(loanRepo, never()).findAll();
+    }
+
+    @Test
+    void exportLoans_withArchiveMergesById() {
+        Loan hot1 = new Loan(2L, 3L, "B", 0L, 0L, true);
+        Loan hot2 = new Loan(5L, 3L, "E", 0L, 0L, false);
+        Loan old1 = new Loan(1L, 3L, "A", 0L, 0L, true);
+        Loan old2 = new Loan(4L, 3L, "D", 0L, 0L, true);
+
+        when(loanRepo.streamForExport(0L, 100L, 3L)).thenReturn(Stream.of(hot1, hot2));
+        when(archiveRepo.streamForExport(0L, 100L, 3L)).thenReturn(Stream.of(old1, old2));
+
+        List<Loan> exported = new ArrayList<>();
+        service.exportLoans(0L, 100L, 3L, true, exported::add);
+
+        assertEquals(List.of(old1, hot1, old2, hot2), exported);
+    }
+
+    @Test
+    void getLoansByDeviceId_withArchive() {
+        Loan hot = new Loan(7L, 99L, "B", 0L, 0L, false);
+        Loan old = new Loan(3L, 99L, "A", 0L, 0L, true);
+
+        when(loanRepo.findByDeviceId(99L)).thenReturn(List.of(hot));
+        when(archiveRepo.findLoansByDeviceId(99L)).thenReturn(List.of(old));
+
+        assertEquals(List.of(old, hot), service.getLoansByDeviceId(99L, true));
+        assertEquals(List.of(hot), service.getLoansByDeviceId(99L, false));
+        verify(archiveRepo, times(1)).findLoansByDeviceId(99L);
+    }
+
+    @Test
+    void returnLoan_archived() {
+        when(loanRepo.markReturnedIfActive(eq(5L), anyLong())).thenReturn(0);
+        when(loanRepo.findById(5L)).thenReturn(Optional.empty());
+        when(archiveRepo.existsById(5L)).thenReturn(true);
+
+        Exception ex = assertThrows(IllegalStateException.class, () -> service.markAsReturned(5L));
+        assertEquals("Loan is already marked as returned", ex.getMessage());
+    }
+
     @Test
     void getLoan_found() {
         Loan loan = new Loan();
@@ -116,32 +206,55 @@ class LoanServiceTest {
         verify(loanRepo).findById(10L);
     }
 
+    @Test
+    void createLoan_dueDateInPast() {
+        Loan loan = new Loan(null, 1L, "Ana", 0L, 0L, false, System.currentTimeMillis() - 1000);
+
+        Exception ex = assertThrows(IllegalArgumentException.class, () -> service.registerLoan(loan));
+        assertEquals("Due date must be in the future", ex.getMessage());
+        verify(deviceRepo, never()).compareAndSetStatus(any(), any(), any());
+    }
+
     @Test
     void returnLoan_ok() {
         Loan loan = new Loan();
         loan.setId(5L);
         loan.setDeviceId(1L);
-        loan.setReturned(false);
-
-        Device device = new Device();
-        device.setId(1L);
-        device.setStatus(DeviceStatus.LOANED);
+        loan.setReturned(true);
 
+        when(loanRepo.markReturnedIfActive(eq(5L), anyLong())).thenReturn(1);
         when(loanRepo.findById(5L)).thenReturn(Optional.of(loan));
-        when(deviceRepo.findById(1L)).thenReturn(Optional.of(device));
-        when(loanRepo.save(any(Loan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(deviceRepo.releaseLoan(1L, 5L)).thenReturn(1);
 
         Loan result = service.markAsReturned(5L);
 
         assertTrue(result.isReturned());
         assertNotNull(result.getEndDate());
-        assertEquals(DeviceStatus.AVAILABLE, device.getStatus());
-        verify(loanRepo).save(loan);
-        verify(deviceRepo).save(device);
+        verify(deviceRepo).releaseLoan(1L, 5L);
+        verify(loanRepo, never()).save(any());
+        verify(deviceRepo, never()).save(any());
+    }
+
+    @Test
+    void returnLoan_deviceNoLongerLoaned() {
+        Loan loan = new Loan();
+        loan.setId(5L);
+        loan.setDeviceId(1L);
+        loan.setReturned(true);
+
+        when(loanRepo.markReturnedIfActive(eq(5L), anyLong())).thenReturn(1);
+        when(loanRepo.findById(5L)).thenReturn(Optional.of(loan));
+        when(deviceRepo.releaseLoan(1L, 5L)).thenReturn(0);
+        when(deviceRepo.existsById(1L)).thenReturn(true);
+
+        Loan result = service.markAsReturned(5L);
+
+        assertTrue(result.isReturned());
     }
 
     @Test
     void returnLoan_loanNotFound() {
+        when(loanRepo.markReturnedIfActive(eq(5L), anyLong())).thenReturn(0);
         when(loanRepo.findById(5L)).thenReturn(Optional.empty());
 
         Exception ex = assertThrows(IllegalArgumentException.class, () -> service.markAsReturned(5L));
@@ -155,11 +268,12 @@ class LoanServiceTest {
         loan.setId(5L);
         loan.setReturned(true);
 
+        when(loanRepo.markReturnedIfActive(eq(5L), anyLong())).thenReturn(0);
         when(loanRepo.findById(5L)).thenReturn(Optional.of(loan));
 
         Exception ex = assertThrows(IllegalStateException.class, () -> service.markAsReturned(5L));
         assertEquals("Loan is already marked as returned", ex.getMessage());
-        verify(loanRepo, never()).save(any());
+        verify(deviceRepo, never()).releaseLoan(any(), any());
     }
 
     @Test
@@ -169,24 +283,128 @@ class LoanServiceTest {
 
         when(loanRepo.findByDeviceId(99L)).thenReturn(Arrays.asList(loan1, loan2));
 
-        List<Loan> result = service.getLoansByDeviceId(99L);
+        List<Loan> result = service.getLoansByDeviceId(99L, false);
 
         assertEquals(2, result.size());
         verify(loanRepo).findByDeviceId(99L);
     }
 
+    @Test
+    void getActiveLoan_devicePointsToLoan() {
+        Device device = new Device();
+        device.setId(1L);
+        device.setActiveLoanId(5L);
+        Loan loan = new Loan();
+        loan.setId(5L);
+
+        when(deviceRepo.findCurrent(1L)).thenReturn(Optional.of(device));
+        when(loanRepo.findById(5L)).thenReturn(Optional.of(loan));
+
+        Optional<Loan> result = service.getActiveLoan(1L);
+
+        assertTrue(result.isPresent());
+        assertEquals(5L, result.get().getId());
+        verify(loanRepo, never()).findByDeviceId(any());
+    }
+
+    @Test
+    void getActiveLoan_loanReturnedMeanwhile() {
+        Device device = new Device();
+        device.setId(1L);
+        device.setActiveLoanId(5L);
+        Loan loan = new Loan(5L, 1L, "Ana", 0L, 10L, true);
+
+        when(deviceRepo.findCurrent(1L)).thenReturn(Optional.of(device));
+        when(loanRepo.findById(5L)).thenReturn(Optional.of(loan));
+
+        assertTrue(service.getActiveLoan(1L).isEmpty());
+    }
+
+    @Test
+    void getActiveLoan_deviceAvailable() {
+        Device device = new Device();
+        device.setId(1L);
+
+        when(deviceRepo.findCurrent(1L)).thenReturn(Optional.of(device));
+
+        assertTrue(service.getActiveLoan(1L).isEmpty());
+        verify(loanRepo, never()).findById(any());
+    }
+
     @Test
     void returnLoan_deviceNotFound() {
         Loan loan = new Loan();
         loan.setId(5L);
         loan.setDeviceId(1L);
-        loan.setReturned(false);
+        loan.setReturned(true);
 
+        when(loanRepo.markReturnedIfActive(eq(5L), anyLong())).thenReturn(1);
         when(loanRepo.findById(5L)).thenReturn(Optional.of(loan));
-        when(deviceRepo.findById(1L)).thenReturn(Optional.empty());
+        when(deviceRepo.releaseLoan(1L, 5L)).thenReturn(0);
+        when(deviceRepo.existsById(1L)).thenReturn(false);
 
         Exception ex = assertThrows(IllegalArgumentException.class, () -> service.markAsReturned(5L));
         assertEquals("Device not found", ex.getMessage());
         verify(loanRepo, never()).save(any());
     }
+
+    @Test
+    void returnLoans_reportsEachId() {
+        Loan active = new Loan(5L, 1L, "Ana", 0L, 0L, false);
+        Loan orphan = new Loan(6L, 2L, "Ana", 0L, 0L, false);
+
+        when(loanRepo.lockActiveByIds(any())).thenReturn(List.of(active, orphan));
+        when(deviceRepo.findExistingIds(any())).thenReturn(List.of(1L));
+        when(loanRepo.findExistingIds(List.of(8L, 7L))).thenReturn(List.of(7L));
+
+        LoanReturnResult result = service.returnLoans(new LoanReturnRequest(List.of(8L, 5L, 7L, 6L, 5L), null));
+
+        assertEquals(1, result.getReturned());
+        assertEquals(List.of(
+                new LoanReturnResult.Outcome(8L, LoanReturnResult.Status.NOT_FOUND),
+                new LoanReturnResult.Outcome(5L, LoanReturnResult.Status.RETURNED),
+                new LoanReturnResult.Outcome(7L, LoanReturnResult.Status.ALREADY_RETURNED),
+                new LoanReturnResult.Outcome(6L, LoanReturnResult.Status.DEVICE_NOT_FOUND)), result.getResults());
+        verify(loanRepo).markReturned(eq(List.of(5L)), anyLong());
+        verify(deviceRepo).releaseLoans(Set.of(1L), List.of(5L));
+        verify(loanRepo, never()).markReturnedIfActive(any(), anyLong());
+        verify(eventPublisher).publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, active));
+        assertTrue(active.isReturned());
+        assertFalse(orphan.isReturned());
+    }
+
+    @Test
+    void returnLoans_byBorrower() {
+        Loan first = new Loan(5L, 1L, "Ana", 0L, 0L, false);
+        Loan second = new Loan(6L, 2L, "Ana", 0L, 0L, false);
+
+        when(loanRepo.lockActiveByBorrower("Ana")).thenReturn(List.of(first, second));
+        when(deviceRepo.findExistingIds(any())).thenReturn(List.of(1L, 2L));
+
+        LoanReturnResult result = service.returnLoans(new LoanReturnRequest(null, "Ana"));
+
+        assertEquals(2, result.getReturned());
+        verify(loanRepo).markReturned(eq(List.of(5L, 6L)), anyLong());
+        verify(deviceRepo).releaseLoans(Set.of(1L, 2L), List.of(5L, 6L));
+        verify(loanRepo, never()).findExistingIds(any());
+    }
+
+    @Test
+    void returnLoans_nothingToReturn() {
+        when(loanRepo.lockActiveByBorrower("Nobody")).thenReturn(List.of());
+
+        LoanReturnResult result = service.returnLoans(new LoanReturnRequest(null, "Nobody"));
+
+        assertEquals(0, result.getReturned());
+        assertTrue(result.getResults().isEmpty());
+        verify(loanRepo, never()).markReturned(any(), anyLong());
+        verify(deviceRepo, never()).releaseLoans(any(), any());
+    }
+
+    @Test
+    void returnLoans_needsExactlyOneSelector() {
+        assertThrows(IllegalArgumentException.class, () -> service.returnLoans(new LoanReturnRequest(null, " ")));
+        assertThrows(IllegalArgumentException.class, () -> service.returnLoans(new LoanReturnRequest(List.of(1L), "Ana")));
+        verifyNoInteractions(loanRepo);
+    }
 }
@@ -0,0 +1,97 @@
+package edu.unac.service;
+
+import edu.unac.domain.Loan;
+import edu.unac.domain.LoanChangedEvent;
+import edu.unac.repository.LoanRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OverdueTrackerTest {
+    private LoanRepository loanRepo;
+    private ApplicationEventPublisher eventPublisher;
+    private OverdueTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        loanRepo = mock(LoanRepository.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        tracker = new OverdueTracker(loanRepo, eventPublisher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        tracker.shutdown();
+    }
+
+    @Test
+    void seedsFromActiveLoansMostOverdueFirst() {
+        long now = System.currentTimeMillis();
+        Loan late = loan(1L, now - 1000);
+        Loan later = loan(2L, now - 5000);
+        Loan upcoming = loan(3L, now + 60_000);
+        when(loanRepo.findActiveWithDueDate()).thenReturn(List.of(late, later, upcoming));
+
+        tracker.seed();
+
+        assertEquals(List.of(later, late), tracker.getOverdueLoans());
+        verify(loanRepo).findActiveWithDueDate();
+    }
+
+    @Test
+    void flagsLoanWhenItCrossesItsDueDate() throws Exception {
+        when(loanRepo.findActiveWithDueDate()).thenReturn(List.of());
+        tracker.seed();
+        Loan loan = loan(7L, System.currentTimeMillis() + 200);
+
+        tracker.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, loan));
+        assertTrue(tracker.getOverdueLoans().isEmpty());
+
+        verify(eventPublisher, timeout(2000)).publishEvent(new LoanChangedEvent(LoanChangedEvent.Type.OVERDUE, loan));
+        assertEquals(List.of(loan), tracker.getOverdueLoans());
+        verify(loanRepo, times(1)).findActiveWithDueDate();
+    }
+
+    @Test
+    void returnedLoansAreDropped() {
+        long now = System.currentTimeMillis();
+        Loan overdue = loan(1L, now - 1000);
+        Loan upcoming = loan(2L, now + 200);
+        when(loanRepo.findActiveWithDueDate()).thenReturn(List.of(overdue, upcoming));
+        tracker.seed();
+
+        tracker.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, overdue));
+        tracker.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, upcoming));
+
+        assertTrue(tracker.getOverdueLoans().isEmpty());
+        verify(eventPublisher, after(400).never()).publishEvent(any());
+    }
+
+    @Test
+    void returnSeenBeforeRegistrationIsNotTracked() {
+        when(loanRepo.findActiveWithDueDate()).thenReturn(List.of());
+        tracker.seed();
+        Loan registered = loan(4L, System.currentTimeMillis() - 1000);
+        Loan returned = loan(4L, registered.getDueDate());
+        returned.setReturned(true);
+
+        tracker.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.RETURNED, returned));
+        tracker.onLoanChanged(new LoanChangedEvent(LoanChangedEvent.Type.REGISTERED, registered));
+
+        assertTrue(tracker.getOverdueLoans().isEmpty());
+        verify(eventPublisher, after(200).never()).publishEvent(any());
+    }
+
+    private static Loan loan(Long id, long dueDate) {
+        Loan loan = new Loan(id, 1L, "Ana", 0L, 0L, false);
+        loan.setDueDate(dueDate);
+        return loan;
+    }
+}
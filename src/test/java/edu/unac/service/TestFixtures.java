@@ -0,0 +1,59 @@
+package edu.unac.service;
+
+import edu.unac.domain.Device;
+import edu.unac.domain.DeviceStatus;
+import edu.unac.domain.Loan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Shared by the service tests that write through Spring and race threads against each other
+final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    static Device newDevice(String name) {
+        return new Device(null, name, "Computers", "Lab", DeviceStatus.AVAILABLE, System.currentTimeMillis());
+    }
+
+    static Loan newLoan(Long deviceId, String borrowedBy) {
+        Loan loan = new Loan();
+        loan.setDeviceId(deviceId);
+        loan.setBorrowedBy(borrowedBy);
+        return loan;
+    }
+
+    // Runs task 0..tasks-1 on the given number of threads, all released at once, and rethrows the first failure
+    static void runConcurrently(int threads, int tasks, IntTask task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            futures.add(pool.submit(() -> {
+                start.await();
+                task.run(index);
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    interface IntTask {
+        void run(int index) throws Exception;
+    }
+}